@@ -3,6 +3,7 @@ package com.derek.permissionhelperdemo;
 import android.Manifest;
 import android.app.Activity;
 import android.content.DialogInterface;
+import android.content.Intent;
 import android.os.Bundle;
 import android.support.design.widget.FloatingActionButton;
 import android.support.design.widget.Snackbar;
@@ -20,14 +21,13 @@ import android.widget.LinearLayout;
 
 import com.derek.permissionhelper.PermissionHelper;
 import com.derek.permissionhelper.PermissionHelper.RLog;
+import com.derek.permissionhelper.PermissionResultDispatcher;
+import com.derek.permissionhelper.PermissionStatusCache;
+import com.derek.permissionhelper.annotations.Permission;
+import com.derek.permissionhelper.annotations.PermissionGroup;
+import com.derek.permissionhelper.annotations.PermissionRequest;
 
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
-
-public class PermissionHelperDemo extends AppCompatActivity implements ActivityCompat.OnRequestPermissionsResultCallback, PermissionHelper.RequestPermissionsActivity {
+public class PermissionHelperDemo extends AppCompatActivity implements ActivityCompat.OnRequestPermissionsResultCallback {
     private static final String TAG = "PermissionHelperDemo";
     private LinearLayout rootLayout;
 
@@ -49,39 +49,37 @@ public class PermissionHelperDemo extends AppCompatActivity implements ActivityC
 
         rootLayout = (LinearLayout) findViewById(R.id.root);
 
+        // so that the rationale dialog doesn't have to load them on the UI thread
+        PermissionHelper.prefetchPermissionLabels(this, Manifest.permission.READ_CONTACTS);
+
+        // a flow started before a configuration change goes on in this activity, report to this one
+        for (PermissionHelper helper : PermissionHelper.getRunningHelpers(this)) {
+            helper.setPermissionCallBack(permissionCallBack);
+        }
+
         AppCompatButton button = new AppCompatButton(this);
         button.setOnClickListener(onClickListener);
         button.setText("Request permission");
         rootLayout.addView(button, LinearLayout.LayoutParams.MATCH_PARENT, LinearLayout.LayoutParams.MATCH_PARENT);
     }
 
+    private PermissionHelper.PermissionCallBack permissionCallBack = new PermissionHelper.PermissionCallBack() {
+        @Override
+        public void onSuccess() {
+            Log.i(TAG, "Permission granted");
+        }
+
+        @Override
+        public void onFail() {
+            Log.e(TAG, "Critical permission not granted, aborting the ship");
+        }
+    };
+
     private View.OnClickListener onClickListener = new View.OnClickListener() {
         @Override
         public void onClick(View v) {
             Log.v(TAG, "check & request permission");
-            PermissionHelper.checkRequestPermission(
-                    PermissionHelperDemo.this,
-                    new PermissionHelper.PermissionCallBack() {
-                        @Override
-                        public void onSuccess() {
-                            Log.i(TAG, "Permission granted");
-                        }
-
-                        @Override
-                        public void onFail() {
-                            Log.e(TAG, "Critical permission not granted, aborting the ship");
-                        }
-                    },
-                    PermissionHelper.Permissions.newPermissions(Manifest.permission.READ_CONTACTS, true, "RAtInaLE MesSAgE: wE kInDdA nEeD ThiS pErmISsion, cUZ wE jUSt wAnT IT", getPackageManager()),
-                    PermissionHelper.Permissions.newPermissionGroup("Title", "Message",
-                            PermissionHelper.Permissions.newSubPermissions(Manifest.permission.READ_SMS, false),
-                            PermissionHelper.Permissions.newSubPermissions(Manifest.permission.READ_CALENDAR, false),
-                            PermissionHelper.Permissions.newSubPermissions(Manifest.permission.READ_CONTACTS, false)),
-                    PermissionHelper.Permissions.newPermissionGroup("Title", "Message: call & body",
-                            PermissionHelper.Permissions.newSubPermissions(Manifest.permission.CALL_PHONE, false),
-                            PermissionHelper.Permissions.newSubPermissions(Manifest.permission.BODY_SENSORS, false),
-                            PermissionHelper.Permissions.newSubPermissions(Manifest.permission.READ_SMS, false))
-            )
+            requestDemoPermissions()
             // the rest of this method is optional
             .setPermissionResultCallBack(new PermissionHelper.PermissionResultCallBack() {
                 @Override
@@ -109,6 +107,7 @@ public class PermissionHelperDemo extends AppCompatActivity implements ActivityC
                                     .setNegativeButton(android.R.string.no, new DialogInterface.OnClickListener() {
                                         public void onClick(DialogInterface dialog, int which) {
                                             RLog.i(TAG, "INLINE - NO");
+                                            postShowRationalCallBack.requestPermission(false);
                                         }
                                     })
                                     .setIcon(android.R.drawable.ic_menu_help)
@@ -118,6 +117,31 @@ public class PermissionHelperDemo extends AppCompatActivity implements ActivityC
         }
     };
 
+    /**
+     * the plan is generated at build time (PermissionHelperDemo_PermissionPlans), nothing is built on each click
+     */
+    @PermissionRequest(value = @Permission(value = Manifest.permission.READ_CONTACTS,
+            message = "RAtInaLE MesSAgE: wE kInDdA nEeD ThiS pErmISsion, cUZ wE jUSt wAnT IT"),
+            groups = {
+                    @PermissionGroup(title = "Title", message = "Message", value = {
+                            @Permission(value = Manifest.permission.READ_SMS, critical = false),
+                            @Permission(value = Manifest.permission.READ_CALENDAR, critical = false),
+                            @Permission(value = Manifest.permission.READ_CONTACTS, critical = false)}),
+                    @PermissionGroup(title = "Title", message = "Message: call & body", value = {
+                            @Permission(value = Manifest.permission.CALL_PHONE, critical = false),
+                            @Permission(value = Manifest.permission.BODY_SENSORS, critical = false),
+                            @Permission(value = Manifest.permission.READ_SMS, critical = false)})})
+    private PermissionHelper requestDemoPermissions() {
+        return PermissionHelperDemo_PermissionPlans.requestDemoPermissions(this, permissionCallBack);
+    }
+
+    @Override
+    protected void onRestart() {
+        super.onRestart();
+        // we've been stopped, permissions may have been changed from the Settings app in the meantime
+        PermissionStatusCache.invalidate();
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         // Inflate the menu; this adds items to the action bar if it is present.
@@ -142,30 +166,17 @@ public class PermissionHelperDemo extends AppCompatActivity implements ActivityC
 
 
     /* Permission */
-    private List<ActivityCompat.OnRequestPermissionsResultCallback> onRequestPermissionsResultCallbackList = new ArrayList<>();
-
-    private final Lock lock = new ReentrantLock();
     @Override
     public void onRequestPermissionsResult(int requestCode, String[] permissions, int[] grantResults) {
         super.onRequestPermissionsResult(requestCode, permissions, grantResults);
-
-        Iterator<ActivityCompat.OnRequestPermissionsResultCallback> iter = this.onRequestPermissionsResultCallbackList.iterator();
-        while (iter.hasNext()) {
-            ActivityCompat.OnRequestPermissionsResultCallback callback = iter.next();
-            if (callback != null) {
-                callback.onRequestPermissionsResult(requestCode, permissions, grantResults);
-            }
-        }
+        PermissionResultDispatcher.dispatch(requestCode, permissions, grantResults);
         //PermissionHelper.cancelAll();
     }
-    public void registerOnRequestPermissionsResultCallback(ActivityCompat.OnRequestPermissionsResultCallback callback) {
-        synchronized (lock) {onRequestPermissionsResultCallbackList.add(callback);}
-    }
-    public boolean removeOnRequestPermissionsResultCallback(ActivityCompat.OnRequestPermissionsResultCallback callback) {
-        boolean removed;
-        synchronized (lock) {
-            removed = onRequestPermissionsResultCallbackList.remove(callback);
-        }
-        return removed;
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        // back from the app settings screen opened by a helper
+        PermissionResultDispatcher.dispatchActivityResult(requestCode);
     }
 }
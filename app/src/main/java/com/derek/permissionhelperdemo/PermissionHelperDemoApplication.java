@@ -0,0 +1,17 @@
+package com.derek.permissionhelperdemo;
+
+import android.app.Application;
+
+import com.derek.permissionhelper.PermissionObserver;
+import com.derek.permissionhelper.PermissionPreflight;
+
+public class PermissionHelperDemoApplication extends Application {
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        // index declared permissions in the background before the first screen asks for them
+        PermissionPreflight.start(this);
+        // one bulk check of the observed permissions each time the app comes back to the foreground
+        PermissionObserver.install(this);
+    }
+}
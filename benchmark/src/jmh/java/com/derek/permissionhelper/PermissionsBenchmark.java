@@ -0,0 +1,59 @@
+package com.derek.permissionhelper;
+
+import com.derek.permissionhelper.PermissionHelper.Permissions;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Building the definitions of a request, the demo's onClickListener does it on every click
+ */
+@State(Scope.Thread)
+public class PermissionsBenchmark {
+    private static final String CONTACTS = "android.permission.READ_CONTACTS";
+    private static final String SMS = "android.permission.READ_SMS";
+    private static final String CALENDAR = "android.permission.READ_CALENDAR";
+    private static final String CALL_PHONE = "android.permission.CALL_PHONE";
+    private static final String BODY_SENSORS = "android.permission.BODY_SENSORS";
+
+    private Permissions[] permissions;
+    private PermissionResult result;
+
+    @Setup
+    public void setUp() {
+        permissions = buildTree();
+        result = new PermissionResult(PermissionPlan.compile(permissions));
+        result.granted.set(0, result.getPlan().size());
+    }
+
+    @Benchmark
+    public Permissions[] buildTree() {
+        return new Permissions[]{
+                Permissions.newPermissions(CONTACTS, "title", "message"),
+                Permissions.newPermissionGroup("Title", "Message",
+                        Permissions.newSubPermissions(SMS, false),
+                        Permissions.newSubPermissions(CALENDAR, false),
+                        Permissions.newSubPermissions(CONTACTS, false)),
+                Permissions.newPermissionGroup("Title", "Message: call & body",
+                        Permissions.newSubPermissions(CALL_PHONE, false),
+                        Permissions.newSubPermissions(BODY_SENSORS, false),
+                        Permissions.newSubPermissions(SMS, false))
+        };
+    }
+
+    @Benchmark
+    public PermissionPlan compilePlan() {
+        return PermissionPlan.compile(permissions);
+    }
+
+    @Benchmark
+    public boolean isSatisfied() {
+        boolean satisfied = true;
+        for (Permissions permission : permissions) {
+            satisfied &= permission.isSatisfied(result);
+        }
+        return satisfied;
+    }
+}
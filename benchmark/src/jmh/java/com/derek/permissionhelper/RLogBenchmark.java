@@ -0,0 +1,49 @@
+package com.derek.permissionhelper;
+
+import com.derek.permissionhelper.PermissionHelper.RLog;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Cost of a log call of the library, filtered out (the release case) and formatted into a sink
+ */
+@State(Scope.Thread)
+public class RLogBenchmark {
+    @Param({"NONE", "VERBOSE"})
+    public String level;
+
+    private final String permission = "android.permission.READ_CONTACTS";
+    private final String[] permissions = {"android.permission.READ_CONTACTS", "android.permission.READ_SMS"};
+    private int requestCode = 42;
+
+    @Setup
+    public void setUp(final Blackhole blackhole) {
+        RLog.setLevel("NONE".equals(level) ? RLog.NONE : RLog.VERBOSE);
+        RLog.setSink(new RLog.Sink() {
+            @Override
+            public void log(int priority, String tag, String message) {
+                blackhole.consume(message);
+            }
+        });
+    }
+
+    @Benchmark
+    public void fixedArity() {
+        RLog.d("Benchmark", "Permission", permission, "granted?", true);
+    }
+
+    @Benchmark
+    public void fixedArityInt() {
+        RLog.d("Benchmark", "requesting with request code", requestCode);
+    }
+
+    @Benchmark
+    public void varargs() {
+        RLog.d("Benchmark", "requesting permission:", permissions, "with requestCode:", requestCode, "priority", 0);
+    }
+}
@@ -0,0 +1,72 @@
+package com.derek.permissionhelper;
+
+import android.app.Activity;
+import android.content.pm.PackageManager;
+
+import com.derek.permissionhelper.PermissionHelper.Permissions;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.BitSet;
+import java.util.concurrent.Executor;
+
+/**
+ * Handling of a system result by a running flow: parseResult (result map updates included) and the
+ * index to permission string conversion done for every request
+ */
+@State(Scope.Thread)
+public class ResultParsingBenchmark {
+    @Param({"8", "64", "512"})
+    public int size;
+
+    private PermissionHelper helper;
+    private String[] permissions;
+    private int[] grantResults;
+    private BitSet indices;
+
+    @Setup
+    public void setUp() {
+        PermissionHelper.RLog.setLevel(PermissionHelper.RLog.NONE);
+        PermissionHelper.schedulerExecutor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+
+        permissions = new String[size];
+        grantResults = new int[size];
+        Permissions[] definitions = new Permissions[size];
+        for (int i = 0; i < size; i++) {
+            permissions[i] = "com.derek.permission.P" + i;
+            grantResults[i] = i % 3 == 0 ? PackageManager.PERMISSION_DENIED : PackageManager.PERMISSION_GRANTED;
+            definitions[i] = Permissions.newSubPermissions(permissions[i], i % 2 == 0);
+        }
+        // nothing granted: the flow asks for everything in one request and waits for its result
+        helper = PermissionHelper.checkRequestPermissionBatched(new Activity(), null, definitions);
+        indices = new BitSet(size);
+        indices.set(0, size);
+    }
+
+    @TearDown
+    public void tearDown() {
+        helper.cancel();
+        PermissionStatusCache.invalidate();
+    }
+
+    @Benchmark
+    public PermissionResult parseResult() {
+        helper.parseResult(permissions, grantResults);
+        return helper.getResult();
+    }
+
+    @Benchmark
+    public String[] getPermissionStr() {
+        return helper.getPermissionStr(indices);
+    }
+}
@@ -0,0 +1,56 @@
+package com.derek.permissionhelper;
+
+import android.support.v4.util.SimpleArrayMap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The result map updates of a flow (resultList), filled from scratch and then updated in place
+ */
+@State(Scope.Thread)
+public class SimpleArrayMapBenchmark {
+    @Param({"8", "64", "512"})
+    public int size;
+
+    private String[] permissions;
+    private SimpleArrayMap<String, Boolean> filled;
+
+    @Setup
+    public void setUp() {
+        permissions = new String[size];
+        for (int i = 0; i < size; i++) {
+            permissions[i] = "com.derek.permission.P" + i;
+        }
+        filled = fill();
+    }
+
+    @Benchmark
+    public SimpleArrayMap<String, Boolean> fill() {
+        SimpleArrayMap<String, Boolean> resultList = new SimpleArrayMap<>(size);
+        for (int i = 0; i < size; i++) {
+            resultList.put(permissions[i], i % 3 != 0);
+        }
+        return resultList;
+    }
+
+    @Benchmark
+    public SimpleArrayMap<String, Boolean> update() {
+        for (int i = 0; i < size; i++) {
+            filled.put(permissions[i], i % 2 == 0);
+        }
+        return filled;
+    }
+
+    @Benchmark
+    public int scan() {
+        int granted = 0;
+        for (int i = 0; i < filled.size(); i++) {
+            if (filled.valueAt(i)) granted++;
+        }
+        return granted;
+    }
+}
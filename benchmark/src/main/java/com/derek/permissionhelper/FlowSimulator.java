@@ -0,0 +1,233 @@
+package com.derek.permissionhelper;
+
+import android.support.v7.app.AlertDialog;
+
+import com.derek.permissionhelper.PermissionHelper.Permissions;
+
+import java.util.ArrayDeque;
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs the request state machine of {@link PermissionHelper} on the JVM against a {@link SimulatedActivity},
+ * over randomized but reproducible (seeded) scenarios: initial grant / denied / "never ask again" states,
+ * request definitions with and without rationale, users granting / denying at random.
+ * Reports per flow the platform round-trips, system dialogs, rationale dialogs and platform checks (IPCs),
+ * to catch regressions in the number of round-trips. Everything runs on the calling thread.
+ */
+public final class FlowSimulator {
+    private static final int PERMISSION_COUNT = 12;
+    private static final String[] PERMISSIONS = new String[PERMISSION_COUNT];
+
+    static {
+        for (int i = 0; i < PERMISSION_COUNT; i++) {
+            PERMISSIONS[i] = "android.permission.SIMULATED_" + i;
+        }
+    }
+
+    /**
+     * The main thread: flow steps, system results and dialog answers are posted to it and run in order
+     */
+    static final class EventLoop implements Executor {
+        private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+        // rationale dialogs answered so far
+        int rationales;
+
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        /**
+         * run until nothing is left to do, answering the rationale dialogs on the way
+         */
+        void runUntilIdle(Random random, double rationaleAcceptRate) {
+            while (true) {
+                Runnable task = tasks.poll();
+                if (task != null) {
+                    task.run();
+                    continue;
+                }
+                final AlertDialog dialog = AlertDialog.pollShown();
+                if (dialog == null) return;
+                rationales++;
+                final int which = random.nextDouble() < rationaleAcceptRate ? AlertDialog.BUTTON_POSITIVE : AlertDialog.BUTTON_NEGATIVE;
+                execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        dialog.click(which);
+                    }
+                });
+            }
+        }
+    }
+
+    public static final class Report {
+        public int flows;
+        public int succeeded;
+        public int failed;
+        // never finished, waiting on something which will never come
+        public int stalled;
+        public long roundTrips;
+        public int maxRoundTrips;
+        public long dialogs;
+        public long rationales;
+        public long ipcs;
+        public int duplicateAsks;
+
+        /**
+         * @return some flows stalled or asked twice for the same permission, the state machine is broken
+         */
+        public boolean hasFailures() {
+            return stalled > 0 || duplicateAsks > 0;
+        }
+
+        public double getRoundTripsPerFlow() {
+            return flows == 0 ? 0 : (double) roundTrips / flows;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s%d flows: %d succeeded, %d failed, %d stalled | per flow: %.3f round-trips (max %d), "
+                            + "%.3f system dialogs, %.3f rationales, %.3f IPCs | %d duplicate asks",
+                    hasFailures() ? "FAILED " : "", flows, succeeded, failed, stalled, getRoundTripsPerFlow(), maxRoundTrips,
+                    (double) dialogs / flows, (double) rationales / flows, (double) ipcs / flows, duplicateAsks);
+        }
+    }
+
+    private final Random random;
+    private final EventLoop loop = new EventLoop();
+    private double grantRate = 0.6;
+    private double neverAskAgainRate = 0.3;
+    private double rationaleAcceptRate = 1;
+
+    public FlowSimulator(long seed) {
+        random = new Random(seed);
+    }
+
+    public FlowSimulator setGrantRate(double grantRate) {
+        this.grantRate = grantRate;
+        return this;
+    }
+
+    public FlowSimulator setNeverAskAgainRate(double neverAskAgainRate) {
+        this.neverAskAgainRate = neverAskAgainRate;
+        return this;
+    }
+
+    public FlowSimulator setRationaleAcceptRate(double rationaleAcceptRate) {
+        this.rationaleAcceptRate = rationaleAcceptRate;
+        return this;
+    }
+
+    public Report run(int flows, boolean batched) {
+        PermissionHelper.RLog.setLevel(PermissionHelper.RLog.NONE);
+        PermissionHelper.schedulerExecutor = loop;
+        Report report = new Report();
+        for (int i = 0; i < flows; i++) {
+            runFlow(batched, report);
+        }
+        return report;
+    }
+
+    private void runFlow(boolean batched, Report report) {
+        SimulatedActivity activity = new SimulatedActivity(loop, random, grantRate, neverAskAgainRate);
+        // a new device: nothing cached / remembered from the previous flow
+        PermissionStatusCache.invalidate();
+        PermissionDenialHistory.clear(activity);
+        for (String permission : PERMISSIONS) {
+            int state = randomState();
+            activity.setState(permission, state);
+            if (state == SimulatedActivity.DENIED || state == SimulatedActivity.DENIED_FOREVER) {
+                PermissionDenialHistory.record(permission, false);
+            }
+        }
+
+        final int[] outcome = new int[1];
+        PermissionHelper.PermissionCallBack callBack = new PermissionHelper.PermissionCallBack() {
+            @Override
+            public void onSuccess() {
+                outcome[0] = 1;
+            }
+
+            @Override
+            public void onFail() {
+                outcome[0] = -1;
+            }
+        };
+        Permissions[] definitions = randomDefinitions();
+        int rationalesBefore = loop.rationales;
+        PermissionHelper helper = batched ?
+                PermissionHelper.checkRequestPermissionBatched(activity, callBack, definitions) :
+                PermissionHelper.checkRequestPermission(activity, callBack, definitions);
+        loop.runUntilIdle(random, rationaleAcceptRate);
+
+        report.flows++;
+        if (outcome[0] == 1) {
+            report.succeeded++;
+        } else if (outcome[0] == -1) {
+            report.failed++;
+        } else {
+            report.stalled++;
+            helper.cancel();
+        }
+        report.roundTrips += activity.requestCount;
+        report.maxRoundTrips = Math.max(report.maxRoundTrips, activity.requestCount);
+        report.dialogs += activity.dialogCount;
+        report.ipcs += activity.checkCount + activity.rationaleCheckCount;
+        report.duplicateAsks += activity.duplicateAsks;
+        report.rationales += loop.rationales - rationalesBefore;
+    }
+
+    private int randomState() {
+        double draw = random.nextDouble();
+        if (draw < 0.3) return SimulatedActivity.GRANTED;
+        if (draw < 0.7) return SimulatedActivity.NEVER_ASKED;
+        if (draw < 0.9) return SimulatedActivity.DENIED;
+        return SimulatedActivity.DENIED_FOREVER;
+    }
+
+    private Permissions[] randomDefinitions() {
+        Permissions[] definitions = new Permissions[1 + random.nextInt(5)];
+        for (int i = 0; i < definitions.length; i++) {
+            if (random.nextDouble() < 0.6) {
+                String permission = randomPermission();
+                definitions[i] = random.nextBoolean() ?
+                        Permissions.newPermissions(permission, random.nextBoolean(), "title", "message") :
+                        Permissions.newSubPermissions(permission, random.nextBoolean());
+            } else {
+                Permissions[] group = new Permissions[2 + random.nextInt(2)];
+                for (int j = 0; j < group.length; j++) {
+                    group[j] = Permissions.newSubPermissions(randomPermission(), random.nextBoolean());
+                }
+                definitions[i] = Permissions.newPermissionGroup("title", "message", group);
+            }
+        }
+        return definitions;
+    }
+
+    private String randomPermission() {
+        return PERMISSIONS[random.nextInt(PERMISSION_COUNT)];
+    }
+
+    public static void main(String[] args) {
+        int flows = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 42;
+        Report[] reports = {
+                new FlowSimulator(seed).run(flows, false),
+                new FlowSimulator(seed).run(flows, true),
+                new FlowSimulator(seed).setRationaleAcceptRate(0.5).run(flows, false),
+                new FlowSimulator(seed).setRationaleAcceptRate(0.5).run(flows, true),
+        };
+        System.out.println("one entry at a time:          " + reports[0]);
+        System.out.println("batched:                      " + reports[1]);
+        System.out.println("rationale declined:           " + reports[2]);
+        System.out.println("rationale declined, batched:  " + reports[3]);
+        for (Report report : reports) {
+            if (report.hasFailures()) {
+                System.err.println("some flows stalled or asked twice for the same permission");
+                System.exit(1);
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.derek.permissionhelper;
+
+import android.app.Activity;
+import android.content.pm.PackageManager;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+
+/**
+ * Scripted platform behind the calls the support library makes on API 23+: grant state per permission,
+ * rationale flag after a first denial, "never ask again" answered without a dialog, and a simulated user
+ * answering each system dialog at random. Results come back asynchronously, through the event loop,
+ * to {@link PermissionResultDispatcher} like a host activity forwards them.
+ */
+class SimulatedActivity extends Activity {
+    static final int NEVER_ASKED = 0;
+    static final int GRANTED = 1;
+    static final int DENIED = 2;
+    static final int DENIED_FOREVER = 3;
+
+    private final HashMap<String, Integer> states = new HashMap<>();
+    private final FlowSimulator.EventLoop loop;
+    private final Random random;
+    private final double grantRate;
+    private final double neverAskAgainRate;
+
+    // platform calls made during the flow
+    int checkCount;
+    int rationaleCheckCount;
+    int requestCount;
+    int dialogCount;
+    // a system dialog shown twice for the same permission in one flow
+    int duplicateAsks;
+    private final HashSet<String> asked = new HashSet<>();
+
+    SimulatedActivity(FlowSimulator.EventLoop loop, Random random, double grantRate, double neverAskAgainRate) {
+        this.loop = loop;
+        this.random = random;
+        this.grantRate = grantRate;
+        this.neverAskAgainRate = neverAskAgainRate;
+    }
+
+    void setState(String permission, int state) {
+        states.put(permission, state);
+    }
+
+    int getState(String permission) {
+        Integer state = states.get(permission);
+        return state != null ? state : NEVER_ASKED;
+    }
+
+    @Override
+    public int checkPermission(String permission, int pid, int uid) {
+        checkCount++;
+        return getState(permission) == GRANTED ? PackageManager.PERMISSION_GRANTED : PackageManager.PERMISSION_DENIED;
+    }
+
+    @Override
+    public boolean shouldShowRequestPermissionRationale(String permission) {
+        rationaleCheckCount++;
+        return getState(permission) == DENIED;
+    }
+
+    @Override
+    public void requestPermissions(final String[] permissions, final int requestCode) {
+        requestCount++;
+        loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                answer(permissions, requestCode);
+            }
+        });
+    }
+
+    private void answer(String[] permissions, int requestCode) {
+        int[] grantResults = new int[permissions.length];
+        boolean dialogShown = false;
+        for (int i = 0; i < permissions.length; i++) {
+            String permission = permissions[i];
+            int state = getState(permission);
+            if (state == NEVER_ASKED || state == DENIED) {
+                // the system asks the user
+                dialogShown = true;
+                if (! asked.add(permission)) duplicateAsks++;
+                if (random.nextDouble() < grantRate) {
+                    state = GRANTED;
+                } else {
+                    // "never ask again" is only offered from the second time on
+                    state = state == DENIED && random.nextDouble() < neverAskAgainRate ? DENIED_FOREVER : DENIED;
+                }
+                states.put(permission, state);
+            }
+            grantResults[i] = state == GRANTED ? PackageManager.PERMISSION_GRANTED : PackageManager.PERMISSION_DENIED;
+        }
+        if (dialogShown) dialogCount++;
+        onRequestPermissionsResult(requestCode, permissions, grantResults);
+    }
+
+    /**
+     * what the host activity does with the result
+     */
+    @Override
+    public void onRequestPermissionsResult(int requestCode, String[] permissions, int[] grantResults) {
+        PermissionResultDispatcher.dispatch(requestCode, permissions, grantResults);
+    }
+}
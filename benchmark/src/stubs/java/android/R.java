@@ -0,0 +1,12 @@
+package android;
+
+public final class R {
+    public static final class string {
+        public static final int yes = 0x01040013;
+        public static final int no = 0x01040009;
+    }
+
+    public static final class drawable {
+        public static final int btn_dialog = 0x01080017;
+    }
+}
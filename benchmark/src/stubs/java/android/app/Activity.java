@@ -0,0 +1,59 @@
+package android.app;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+
+/**
+ * Platform stub: checkPermission / shouldShowRequestPermissionRationale / requestPermissions are what the
+ * support library calls on API 23+, override them to script the platform.
+ */
+public class Activity extends Context {
+    private final FragmentManager fragmentManager = new FragmentManager(this);
+    private final SharedPreferences sharedPreferences = new InMemorySharedPreferences();
+
+    @Override
+    public PackageManager getPackageManager() {
+        return PackageManager.EMPTY;
+    }
+
+    @Override
+    public String getPackageName() {
+        return "com.derek.permissionhelper.benchmark";
+    }
+
+    @Override
+    public SharedPreferences getSharedPreferences(String name, int mode) {
+        return sharedPreferences;
+    }
+
+    public FragmentManager getFragmentManager() {
+        return fragmentManager;
+    }
+
+    public Application getApplication() {
+        return null;
+    }
+
+    public boolean isFinishing() {
+        return false;
+    }
+
+    public boolean isChangingConfigurations() {
+        return false;
+    }
+
+    public void startActivityForResult(Intent intent, int requestCode) {
+    }
+
+    public void requestPermissions(String[] permissions, int requestCode) {
+    }
+
+    public boolean shouldShowRequestPermissionRationale(String permission) {
+        return false;
+    }
+
+    public void onRequestPermissionsResult(int requestCode, String[] permissions, int[] grantResults) {
+    }
+}
@@ -0,0 +1,22 @@
+package android.app;
+
+public class Fragment {
+    private Activity activity;
+
+    public void setRetainInstance(boolean retain) {
+    }
+
+    public void onAttach(Activity activity) {
+        this.activity = activity;
+    }
+
+    public void onDetach() {
+    }
+
+    public void onDestroy() {
+    }
+
+    public final Activity getActivity() {
+        return activity;
+    }
+}
@@ -0,0 +1,36 @@
+package android.app;
+
+import java.util.HashMap;
+
+public class FragmentManager {
+    private final Activity activity;
+    private final HashMap<String, Fragment> fragments = new HashMap<>();
+
+    FragmentManager(Activity activity) {
+        this.activity = activity;
+    }
+
+    public Fragment findFragmentByTag(String tag) {
+        return fragments.get(tag);
+    }
+
+    public FragmentTransaction beginTransaction() {
+        return new FragmentTransaction() {
+            @Override
+            public FragmentTransaction add(Fragment fragment, String tag) {
+                fragments.put(tag, fragment);
+                fragment.onAttach(activity);
+                return this;
+            }
+
+            @Override
+            public int commitAllowingStateLoss() {
+                return 0;
+            }
+        };
+    }
+
+    public boolean executePendingTransactions() {
+        return false;
+    }
+}
@@ -0,0 +1,11 @@
+package android.app;
+
+public abstract class FragmentTransaction {
+    public abstract FragmentTransaction add(Fragment fragment, String tag);
+
+    public abstract int commitAllowingStateLoss();
+
+    public int commit() {
+        return commitAllowingStateLoss();
+    }
+}
@@ -0,0 +1,21 @@
+package android.content;
+
+import android.content.pm.PackageManager;
+
+public abstract class Context {
+    public static final int MODE_PRIVATE = 0;
+
+    public abstract PackageManager getPackageManager();
+
+    public abstract String getPackageName();
+
+    public abstract SharedPreferences getSharedPreferences(String name, int mode);
+
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    public int checkPermission(String permission, int pid, int uid) {
+        return PackageManager.PERMISSION_DENIED;
+    }
+}
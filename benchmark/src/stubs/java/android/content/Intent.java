@@ -0,0 +1,25 @@
+package android.content;
+
+import android.net.Uri;
+
+public class Intent {
+    private final String action;
+    private Uri data;
+
+    public Intent(String action) {
+        this.action = action;
+    }
+
+    public String getAction() {
+        return action;
+    }
+
+    public Intent setData(Uri data) {
+        this.data = data;
+        return this;
+    }
+
+    public Uri getData() {
+        return data;
+    }
+}
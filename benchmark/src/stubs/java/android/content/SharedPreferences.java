@@ -0,0 +1,25 @@
+package android.content;
+
+import java.util.Map;
+
+public interface SharedPreferences {
+    int getInt(String key, int defValue);
+
+    boolean contains(String key);
+
+    Map<String, ?> getAll();
+
+    Editor edit();
+
+    interface Editor {
+        Editor putInt(String key, int value);
+
+        Editor remove(String key);
+
+        Editor clear();
+
+        void apply();
+
+        boolean commit();
+    }
+}
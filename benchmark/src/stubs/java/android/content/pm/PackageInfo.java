@@ -0,0 +1,8 @@
+package android.content.pm;
+
+public class PackageInfo {
+    public static final int REQUESTED_PERMISSION_GRANTED = 2;
+
+    public String[] requestedPermissions;
+    public int[] requestedPermissionsFlags;
+}
@@ -0,0 +1,30 @@
+package android.content.pm;
+
+public abstract class PackageManager {
+    public static final int PERMISSION_GRANTED = 0;
+    public static final int PERMISSION_DENIED = -1;
+    public static final int GET_PERMISSIONS = 0x00001000;
+
+    /** knows no package and no permission */
+    public static final PackageManager EMPTY = new PackageManager() {
+        @Override
+        public PermissionInfo getPermissionInfo(String name, int flags) throws NameNotFoundException {
+            throw new NameNotFoundException(name);
+        }
+
+        @Override
+        public PackageInfo getPackageInfo(String packageName, int flags) throws NameNotFoundException {
+            throw new NameNotFoundException(packageName);
+        }
+    };
+
+    public static class NameNotFoundException extends Exception {
+        public NameNotFoundException(String name) {
+            super(name);
+        }
+    }
+
+    public abstract PermissionInfo getPermissionInfo(String name, int flags) throws NameNotFoundException;
+
+    public abstract PackageInfo getPackageInfo(String packageName, int flags) throws NameNotFoundException;
+}
@@ -0,0 +1,18 @@
+package android.net;
+
+public final class Uri {
+    private final String value;
+
+    private Uri(String value) {
+        this.value = value;
+    }
+
+    public static Uri fromParts(String scheme, String ssp, String fragment) {
+        return new Uri(scheme + ":" + ssp + (fragment != null ? "#" + fragment : ""));
+    }
+
+    @Override
+    public String toString() {
+        return value;
+    }
+}
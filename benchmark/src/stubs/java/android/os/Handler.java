@@ -0,0 +1,14 @@
+package android.os;
+
+/**
+ * Platform stub: there is no looper, posted messages run right away on the calling thread
+ */
+public class Handler {
+    public Handler(Looper looper) {
+    }
+
+    public final boolean post(Runnable runnable) {
+        runnable.run();
+        return true;
+    }
+}
@@ -0,0 +1,19 @@
+package android.os;
+
+public final class Looper {
+    private static final Looper MAIN = new Looper();
+
+    private Looper() {
+    }
+
+    public static Looper getMainLooper() {
+        return MAIN;
+    }
+
+    /**
+     * the JVM threads are never the main thread
+     */
+    public static Looper myLooper() {
+        return null;
+    }
+}
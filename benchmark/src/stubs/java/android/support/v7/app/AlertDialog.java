@@ -0,0 +1,79 @@
+package android.support.v7.app;
+
+import android.content.Context;
+import android.content.DialogInterface;
+
+import java.util.ArrayDeque;
+
+/**
+ * Platform stub: nothing is drawn, shown dialogs are queued so that a simulated user can answer them
+ */
+public class AlertDialog implements DialogInterface {
+    public static final int BUTTON_POSITIVE = -1;
+    public static final int BUTTON_NEGATIVE = -2;
+
+    private static final ArrayDeque<AlertDialog> shown = new ArrayDeque<>();
+
+    private final OnClickListener positiveListener;
+    private final OnClickListener negativeListener;
+
+    private AlertDialog(OnClickListener positiveListener, OnClickListener negativeListener) {
+        this.positiveListener = positiveListener;
+        this.negativeListener = negativeListener;
+    }
+
+    /**
+     * stub only: oldest dialog shown and not answered yet, null if none
+     */
+    public static AlertDialog pollShown() {
+        return shown.poll();
+    }
+
+    /**
+     * stub only: the user taps a button
+     */
+    public void click(int which) {
+        OnClickListener listener = which == BUTTON_POSITIVE ? positiveListener : negativeListener;
+        if (listener != null) listener.onClick(this, which);
+    }
+
+    public static class Builder {
+        private OnClickListener positiveListener;
+        private OnClickListener negativeListener;
+
+        public Builder(Context context) {
+        }
+
+        public Builder setTitle(CharSequence title) {
+            return this;
+        }
+
+        public Builder setMessage(CharSequence message) {
+            return this;
+        }
+
+        public Builder setPositiveButton(int textId, OnClickListener listener) {
+            positiveListener = listener;
+            return this;
+        }
+
+        public Builder setNegativeButton(int textId, OnClickListener listener) {
+            negativeListener = listener;
+            return this;
+        }
+
+        public Builder setOnCancelListener(OnCancelListener listener) {
+            return this;
+        }
+
+        public Builder setIcon(int iconId) {
+            return this;
+        }
+
+        public AlertDialog show() {
+            AlertDialog dialog = new AlertDialog(positiveListener, negativeListener);
+            shown.add(dialog);
+            return dialog;
+        }
+    }
+}
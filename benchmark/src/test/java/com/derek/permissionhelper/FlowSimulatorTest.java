@@ -0,0 +1,137 @@
+package com.derek.permissionhelper;
+
+import android.content.pm.PackageManager;
+
+import com.derek.permissionhelper.PermissionHelper.Permissions;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FlowSimulatorTest {
+    private static final int FLOWS = 2000;
+    private static final long SEED = 42;
+
+    @Test
+    public void everyFlowFinishes_withoutAskingTwice() throws Exception {
+        FlowSimulator.Report report = new FlowSimulator(SEED).run(FLOWS, false);
+
+        assertEquals(FLOWS, report.succeeded + report.failed);
+        assertEquals(0, report.stalled);
+        assertEquals(0, report.duplicateAsks);
+        // at most one round-trip per entry, there are at most 5
+        assertTrue(report.maxRoundTrips <= 5);
+    }
+
+    @Test
+    public void batched_needsFewerRoundTrips() throws Exception {
+        FlowSimulator.Report sequential = new FlowSimulator(SEED).run(FLOWS, false);
+        FlowSimulator.Report batched = new FlowSimulator(SEED).run(FLOWS, true);
+
+        assertEquals(0, batched.stalled);
+        assertEquals(0, batched.duplicateAsks);
+        assertTrue(batched.getRoundTripsPerFlow() < sequential.getRoundTripsPerFlow());
+    }
+
+    @Test
+    public void declinedRationales_everyFlowStillFinishes() throws Exception {
+        for (double rationaleAcceptRate : new double[]{0, 0.5}) {
+            for (boolean batched : new boolean[]{false, true}) {
+                FlowSimulator.Report report = new FlowSimulator(SEED).setRationaleAcceptRate(rationaleAcceptRate).run(FLOWS, batched);
+
+                String scenario = "accept rate " + rationaleAcceptRate + (batched ? ", batched" : "");
+                assertTrue(scenario, report.rationales > 0);
+                assertEquals(scenario, FLOWS, report.succeeded + report.failed);
+                assertEquals(scenario, 0, report.stalled);
+                assertFalse(scenario, report.hasFailures());
+            }
+        }
+    }
+
+    @Test
+    public void stalledFlow_isAFailure() throws Exception {
+        FlowSimulator.Report report = new FlowSimulator.Report();
+        assertFalse(report.hasFailures());
+        report.stalled = 1;
+        assertTrue(report.hasFailures());
+        assertTrue(report.toString().startsWith("FAILED"));
+    }
+
+    @Test
+    public void sameSeed_sameReport() throws Exception {
+        assertEquals(new FlowSimulator(SEED).run(500, false).toString(), new FlowSimulator(SEED).run(500, false).toString());
+    }
+
+    private static final class Outcome implements PermissionHelper.PermissionCallBack {
+        int successCount;
+        int failCount;
+
+        @Override
+        public void onSuccess() {
+            successCount++;
+        }
+
+        @Override
+        public void onFail() {
+            failCount++;
+        }
+    }
+
+    @Test
+    public void configurationChange_flowGoesOnInTheRecreatedActivity() throws Exception {
+        final String contacts = "android.permission.READ_CONTACTS";
+        final String sms = "android.permission.READ_SMS";
+        FlowSimulator.EventLoop loop = new FlowSimulator.EventLoop();
+        Random random = new Random(SEED);
+        PermissionHelper.RLog.setLevel(PermissionHelper.RLog.NONE);
+        PermissionHelper.schedulerExecutor = loop;
+        PermissionStatusCache.invalidate();
+        final List<Integer> shownCodes = new ArrayList<>();
+        // its system dialog is still up when the device is rotated
+        SimulatedActivity old = new SimulatedActivity(loop, random, 1, 0) {
+            @Override
+            public void requestPermissions(String[] permissions, int requestCode) {
+                requestCount++;
+                shownCodes.add(requestCode);
+            }
+        };
+        PermissionDenialHistory.clear(old);
+        Outcome oldOutcome = new Outcome();
+
+        PermissionHelper.checkRequestPermission(old, oldOutcome,
+                Permissions.newSubPermissions(contacts, true), Permissions.newSubPermissions(sms, true));
+        loop.runUntilIdle(random, 1);
+        assertEquals(1, shownCodes.size());
+
+        // recreated: the retained fragment moves to the new activity, which sets its callbacks again
+        String tag = PermissionHelperFragment.class.getName();
+        PermissionHelperFragment fragment = (PermissionHelperFragment) old.getFragmentManager().findFragmentByTag(tag);
+        fragment.onDetach();
+        SimulatedActivity recreated = new SimulatedActivity(loop, random, 1, 0);
+        recreated.getFragmentManager().beginTransaction().add(fragment, tag).commitAllowingStateLoss();
+        List<PermissionHelper> running = PermissionHelper.getRunningHelpers(recreated);
+        assertEquals(1, running.size());
+        Outcome newOutcome = new Outcome();
+        running.get(0).setPermissionCallBack(newOutcome);
+
+        // the system delivers the answer of the dialog to the new activity
+        recreated.setState(contacts, SimulatedActivity.GRANTED);
+        recreated.onRequestPermissionsResult(shownCodes.get(0), new String[]{contacts}, new int[]{PackageManager.PERMISSION_GRANTED});
+        loop.runUntilIdle(random, 1);
+
+        assertTrue(running.get(0).getResult().isGranted(contacts));
+        assertTrue(running.get(0).getResult().isGranted(sms));
+        // the rest of the flow asks in the new activity, nothing is asked twice
+        assertEquals(1, old.requestCount);
+        assertEquals(1, recreated.requestCount);
+        assertEquals(0, recreated.duplicateAsks);
+        assertEquals(1, newOutcome.successCount);
+        assertEquals(0, newOutcome.failCount);
+        assertEquals(0, oldOutcome.successCount + oldOutcome.failCount);
+        assertTrue(PermissionHelper.getRunningHelpers(recreated).isEmpty());
+    }
+}
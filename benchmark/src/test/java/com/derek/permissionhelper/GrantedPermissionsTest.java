@@ -0,0 +1,149 @@
+package com.derek.permissionhelper;
+
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.PermissionInfo;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link PermissionHelper#getGrantedPermissions(android.content.Context, String...)}: whichever way it answers
+ * (package snapshot, status cache, one by one), it agrees with checking each permission on its own
+ */
+public class GrantedPermissionsTest {
+    private static final String[] PERMISSIONS = {
+            "android.permission.CAMERA", "android.permission.READ_SMS", "android.permission.READ_CONTACTS",
+            "android.permission.RECORD_AUDIO", "android.permission.ACCESS_FINE_LOCATION", "android.permission.READ_CALENDAR",
+    };
+    // not in the manifest, never granted
+    private static final String UNDECLARED = "android.permission.BODY_SENSORS";
+
+    private final Random random = new Random(42);
+
+    /**
+     * package snapshot of the simulated platform, counting the snapshots taken
+     */
+    private static final class SnapshotPackageManager extends PackageManager {
+        final SimulatedActivity activity;
+        boolean withFlags = true;
+        int snapshotCount;
+
+        SnapshotPackageManager(SimulatedActivity activity) {
+            this.activity = activity;
+        }
+
+        @Override
+        public PermissionInfo getPermissionInfo(String name, int flags) throws NameNotFoundException {
+            throw new NameNotFoundException(name);
+        }
+
+        @Override
+        public PackageInfo getPackageInfo(String packageName, int flags) throws NameNotFoundException {
+            snapshotCount++;
+            PackageInfo packageInfo = new PackageInfo();
+            packageInfo.requestedPermissions = PERMISSIONS.clone();
+            if (withFlags) {
+                packageInfo.requestedPermissionsFlags = new int[PERMISSIONS.length];
+                for (int i = 0; i < PERMISSIONS.length; i++) {
+                    if (activity.getState(PERMISSIONS[i]) == SimulatedActivity.GRANTED) {
+                        packageInfo.requestedPermissionsFlags[i] = PackageInfo.REQUESTED_PERMISSION_GRANTED;
+                    }
+                }
+            }
+            return packageInfo;
+        }
+    }
+
+    private SnapshotPackageManager packageManager;
+    private SimulatedActivity activity;
+
+    @Before
+    public void setUp() throws Exception {
+        PermissionHelper.RLog.setLevel(PermissionHelper.RLog.NONE);
+        PermissionStatusCache.invalidate();
+        activity = new SimulatedActivity(new FlowSimulator.EventLoop(), random, 1, 0) {
+            @Override
+            public PackageManager getPackageManager() {
+                return packageManager;
+            }
+        };
+        packageManager = new SnapshotPackageManager(activity);
+    }
+
+    private String[] randomPlatform() {
+        for (String permission : PERMISSIONS) {
+            activity.setState(permission, random.nextInt(4));
+        }
+        // in the request but not in the manifest
+        String[] requested = new String[PERMISSIONS.length + 1];
+        System.arraycopy(PERMISSIONS, 0, requested, 0, PERMISSIONS.length);
+        requested[PERMISSIONS.length] = UNDECLARED;
+        return requested;
+    }
+
+    private void assertAgreesWithEachCheck(String[] requested, BitSet granted) {
+        for (int i = 0; i < requested.length; i++) {
+            boolean expected = activity.checkPermission(requested[i], 0, 0) == PackageManager.PERMISSION_GRANTED;
+            assertEquals(requested[i], expected, granted.get(i));
+            assertEquals(requested[i], expected, PermissionHelper.hasPermission(activity, requested[i]));
+        }
+    }
+
+    @Test
+    public void snapshot_agreesWithEachCheck() throws Exception {
+        for (int round = 0; round < 50; round++) {
+            String[] requested = randomPlatform();
+            PermissionStatusCache.invalidate();
+            int snapshotsBefore = packageManager.snapshotCount;
+
+            BitSet granted = PermissionHelper.getGrantedPermissions(activity, requested);
+
+            assertEquals(1, packageManager.snapshotCount - snapshotsBefore);
+            assertAgreesWithEachCheck(requested, granted);
+        }
+    }
+
+    @Test
+    public void cached_agreesWithTheSnapshot() throws Exception {
+        for (int round = 0; round < 50; round++) {
+            String[] requested = randomPlatform();
+            PermissionStatusCache.invalidate();
+            BitSet fromSnapshot = PermissionHelper.getGrantedPermissions(activity, requested);
+            int snapshotsBefore = packageManager.snapshotCount;
+
+            assertEquals(fromSnapshot, PermissionHelper.getGrantedPermissions(activity, requested));
+            assertEquals(snapshotsBefore, packageManager.snapshotCount);
+        }
+    }
+
+    @Test
+    public void partlyCached_agreesWithEachCheck() throws Exception {
+        for (int round = 0; round < 50; round++) {
+            String[] requested = randomPlatform();
+            PermissionStatusCache.invalidate();
+            // some of them checked one by one before
+            for (String permission : requested) {
+                if (random.nextBoolean()) PermissionHelper.hasPermission(activity, permission);
+            }
+
+            assertAgreesWithEachCheck(requested, PermissionHelper.getGrantedPermissions(activity, requested));
+        }
+    }
+
+    @Test
+    public void noSnapshot_checksOneByOne() throws Exception {
+        packageManager.withFlags = false;
+        for (int round = 0; round < 50; round++) {
+            String[] requested = randomPlatform();
+            PermissionStatusCache.invalidate();
+
+            assertAgreesWithEachCheck(requested, PermissionHelper.getGrantedPermissions(activity, requested));
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.derek.permissionhelper;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.derek.permissionhelper.PermissionHelper.Permissions;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PermissionDenialHistoryTest {
+    private static final String CONTACTS = "android.permission.READ_CONTACTS";
+    private static final String SMS = "android.permission.READ_SMS";
+    private static final String CAMERA = "android.permission.CAMERA";
+
+    private final FlowSimulator.EventLoop loop = new FlowSimulator.EventLoop();
+    private final Random random = new Random(42);
+    private SimulatedActivity activity;
+    private SharedPreferences disk;
+
+    @Before
+    public void setUp() throws Exception {
+        PermissionHelper.RLog.setLevel(PermissionHelper.RLog.NONE);
+        PermissionHelper.schedulerExecutor = loop;
+        PermissionStatusCache.invalidate();
+        PermissionDenialHistory.reset();
+        activity = new SimulatedActivity(loop, random, 0, 0);
+        disk = activity.getSharedPreferences("denials", Context.MODE_PRIVATE);
+    }
+
+    @Test
+    public void recordsBeforeTheLoad_areMergedWithTheDisk() throws Exception {
+        disk.edit().putInt(CONTACTS, 2).putInt(SMS, 3).putInt(CAMERA, 1).apply();
+
+        // answered while the history was still being read
+        PermissionDenialHistory.record(CONTACTS, false);
+        PermissionDenialHistory.record(SMS, false);
+        PermissionDenialHistory.record(SMS, true);
+
+        assertEquals(3, PermissionDenialHistory.getDenialCount(activity, CONTACTS));
+        assertEquals(0, PermissionDenialHistory.getDenialCount(activity, SMS));
+        assertEquals(1, PermissionDenialHistory.getDenialCount(activity, CAMERA));
+        assertEquals(3, disk.getInt(CONTACTS, 0));
+        assertFalse(disk.contains(SMS));
+        assertEquals(1, disk.getInt(CAMERA, 0));
+    }
+
+    @Test
+    public void clearBeforeTheLoad_clearsTheDisk() throws Exception {
+        disk.edit().putInt(CONTACTS, 2).apply();
+        PermissionDenialHistory.reset();
+
+        PermissionDenialHistory.record(SMS, false);
+        PermissionDenialHistory.clear(activity);
+
+        assertEquals(0, PermissionDenialHistory.getDenialCount(activity, CONTACTS));
+        assertEquals(0, PermissionDenialHistory.getDenialCount(activity, SMS));
+        assertTrue(disk.getAll().isEmpty());
+    }
+
+    @Test
+    public void onGranted_clearsTheRecord() throws Exception {
+        PermissionDenialHistory.clear(activity);
+        PermissionDenialHistory.record(CONTACTS, false);
+        PermissionDenialHistory.record(CONTACTS, false);
+        assertEquals(2, PermissionDenialHistory.getDenialCount(activity, CONTACTS));
+        assertEquals(2, disk.getInt(CONTACTS, 0));
+
+        // e.g. granted from the settings screen
+        PermissionDenialHistory.onGranted(CONTACTS);
+
+        assertEquals(0, PermissionDenialHistory.getDenialCount(activity, CONTACTS));
+        assertFalse(disk.contains(CONTACTS));
+    }
+
+    @Test
+    public void rationaleStillAllowed_isNeverDeniedForever() throws Exception {
+        PermissionDenialHistory.clear(activity);
+        for (int i = 0; i < 5; i++) {
+            PermissionDenialHistory.record(CONTACTS, false);
+        }
+
+        activity.setState(CONTACTS, SimulatedActivity.DENIED);
+        assertFalse(PermissionDenialHistory.isDeniedForever(activity, CONTACTS));
+
+        activity.setState(CONTACTS, SimulatedActivity.DENIED_FOREVER);
+        assertTrue(PermissionDenialHistory.isDeniedForever(activity, CONTACTS));
+    }
+
+    @Test
+    public void neverDenied_isNotDeniedForever_withoutAnIpc() throws Exception {
+        PermissionDenialHistory.clear(activity);
+        // no rationale wanted, but never denied from the dialog: not asked yet
+        activity.setState(CONTACTS, SimulatedActivity.NEVER_ASKED);
+
+        assertFalse(PermissionDenialHistory.isDeniedForever(activity, CONTACTS));
+        assertEquals(0, activity.rationaleCheckCount);
+    }
+
+    @Test
+    public void deniedForever_isSkippedAndReported() throws Exception {
+        PermissionDenialHistory.clear(activity);
+        PermissionDenialHistory.record(SMS, false);
+        activity.setState(SMS, SimulatedActivity.DENIED_FOREVER);
+        final List<String> reported = new ArrayList<>();
+
+        // the dialog for the first entry suspends the flow, the callback is set before the second one is checked
+        PermissionHelper helper = PermissionHelper.checkRequestPermission(activity, null,
+                Permissions.newSubPermissions(CONTACTS, true), Permissions.newSubPermissions(SMS, true))
+                .setPermissionDeniedForeverCallBack(new PermissionHelper.PermissionDeniedForeverCallBack() {
+                    @Override
+                    public void onDeniedForever(Activity activity, String[] permissions) {
+                        reported.addAll(Arrays.asList(permissions));
+                    }
+                });
+        loop.runUntilIdle(random, 1);
+
+        assertEquals(Arrays.asList(SMS), reported);
+        assertFalse(helper.getResult().isGranted(SMS));
+        assertTrue(helper.getResult().isAnswered(helper.getResult().getPlan().indexOf(SMS)));
+        // only the dialog of the first entry
+        assertEquals(1, activity.requestCount);
+    }
+}
@@ -0,0 +1,85 @@
+package com.derek.permissionhelper;
+
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.PermissionInfo;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+
+import static org.junit.Assert.*;
+
+public class PermissionGroupsTest {
+    private static final String READ_CALENDAR = "android.permission.READ_CALENDAR";
+    private static final String WRITE_CALENDAR = "android.permission.WRITE_CALENDAR";
+    private static final String CAMERA = "android.permission.CAMERA";
+    private static final String INTERNET = "android.permission.INTERNET";
+    private static final String CALENDAR_GROUP = "android.permission-group.CALENDAR";
+
+    /**
+     * package manager knowing the groups it's given, counting the lookups
+     */
+    static final class GroupPackageManager extends PackageManager {
+        final HashMap<String, String> groups = new HashMap<>();
+        int lookupCount;
+
+        GroupPackageManager with(String permission, String group) {
+            groups.put(permission, group);
+            return this;
+        }
+
+        @Override
+        public PermissionInfo getPermissionInfo(String name, int flags) throws NameNotFoundException {
+            lookupCount++;
+            if (! groups.containsKey(name)) throw new NameNotFoundException(name);
+            PermissionInfo permissionInfo = new PermissionInfo();
+            permissionInfo.name = name;
+            permissionInfo.group = groups.get(name);
+            return permissionInfo;
+        }
+
+        @Override
+        public PackageInfo getPackageInfo(String packageName, int flags) throws NameNotFoundException {
+            throw new NameNotFoundException(packageName);
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        PermissionGroups.clear();
+    }
+
+    @Test
+    public void group_isLookedUpOnce() throws Exception {
+        GroupPackageManager packageManager = new GroupPackageManager().with(READ_CALENDAR, CALENDAR_GROUP);
+
+        assertEquals(CALENDAR_GROUP, PermissionGroups.get(packageManager, READ_CALENDAR));
+        assertEquals(CALENDAR_GROUP, PermissionGroups.get(packageManager, READ_CALENDAR));
+        assertEquals(1, packageManager.lookupCount);
+    }
+
+    @Test
+    public void undefinedNullAndUnknown_areNoGroup_andCached() throws Exception {
+        GroupPackageManager packageManager = new GroupPackageManager()
+                .with(READ_CALENDAR, PermissionGroups.UNDEFINED)
+                .with(CAMERA, null);
+
+        for (int i = 0; i < 2; i++) {
+            assertNull(PermissionGroups.get(packageManager, READ_CALENDAR));
+            assertNull(PermissionGroups.get(packageManager, CAMERA));
+            assertNull(PermissionGroups.get(packageManager, INTERNET));
+        }
+        assertEquals(3, packageManager.lookupCount);
+    }
+
+    @Test
+    public void noGroup_isNotConfusedWithAnEqualString() throws Exception {
+        // a distinct instance, equal to the one cached for "no group"
+        GroupPackageManager packageManager = new GroupPackageManager().with(WRITE_CALENDAR, new String(""));
+
+        assertNull(PermissionGroups.get(packageManager, WRITE_CALENDAR));
+        assertNull(PermissionGroups.get(packageManager, WRITE_CALENDAR));
+    }
+}
@@ -0,0 +1,356 @@
+package com.derek.permissionhelper;
+
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.support.v4.app.ActivityCompat;
+import android.support.v4.util.SimpleArrayMap;
+import android.support.v7.app.AlertDialog;
+
+import com.derek.permissionhelper.PermissionHelper.Permissions;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Whole flows on the JVM, against the scripted platform of the simulator
+ */
+public class PermissionHelperFlowTest {
+    private static final String CONTACTS = "android.permission.READ_CONTACTS";
+    private static final String SMS = "android.permission.READ_SMS";
+    private static final String WRITE_CONTACTS = "android.permission.WRITE_CONTACTS";
+
+    private final FlowSimulator.EventLoop loop = new FlowSimulator.EventLoop();
+    private final Random random = new Random(42);
+
+    private static final class Outcome implements PermissionHelper.PermissionCallBack {
+        int successCount;
+        int failCount;
+
+        @Override
+        public void onSuccess() {
+            successCount++;
+        }
+
+        @Override
+        public void onFail() {
+            failCount++;
+        }
+
+        boolean isFinished() {
+            return successCount + failCount == 1;
+        }
+    }
+
+    /**
+     * host still fanning its results out to a list of callbacks, the way the demo used to
+     */
+    @SuppressWarnings("deprecation")
+    private static final class LegacyActivity extends SimulatedActivity implements PermissionHelper.RequestPermissionsActivity {
+        final List<ActivityCompat.OnRequestPermissionsResultCallback> callbacks = new ArrayList<>();
+        int dispatchCount;
+
+        LegacyActivity(FlowSimulator.EventLoop loop, Random random) {
+            super(loop, random, 1, 0);
+        }
+
+        @Override
+        public void onRequestPermissionsResult(int requestCode, String[] permissions, int[] grantResults) {
+            for (ActivityCompat.OnRequestPermissionsResultCallback callback : new ArrayList<>(callbacks)) {
+                dispatchCount++;
+                callback.onRequestPermissionsResult(requestCode, permissions, grantResults);
+            }
+        }
+
+        @Override
+        public void registerOnRequestPermissionsResultCallback(ActivityCompat.OnRequestPermissionsResultCallback callback) {
+            callbacks.add(callback);
+        }
+
+        @Override
+        public boolean removeOnRequestPermissionsResultCallback(ActivityCompat.OnRequestPermissionsResultCallback callback) {
+            return callbacks.remove(callback);
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        PermissionHelper.RLog.setLevel(PermissionHelper.RLog.NONE);
+        PermissionHelper.schedulerExecutor = loop;
+        PermissionStatusCache.invalidate();
+        while (AlertDialog.pollShown() != null) ;
+    }
+
+    private SimulatedActivity newActivity(double grantRate) {
+        SimulatedActivity activity = new SimulatedActivity(loop, random, grantRate, 0);
+        PermissionDenialHistory.clear(activity);
+        return activity;
+    }
+
+    @Test
+    public void legacyHost_dispatchesEachResultOnce() throws Exception {
+        LegacyActivity activity = new LegacyActivity(loop, random);
+        PermissionDenialHistory.clear(activity);
+        Outcome contacts = new Outcome();
+        Outcome sms = new Outcome();
+
+        PermissionHelper.checkRequestPermission(activity, contacts, Permissions.newSubPermissions(CONTACTS, true));
+        PermissionHelper.checkRequestPermission(activity, sms, Permissions.newSubPermissions(SMS, true));
+        loop.runUntilIdle(random, 1);
+
+        assertEquals(1, contacts.successCount);
+        assertEquals(1, sms.successCount);
+        assertEquals(1, activity.callbacks.size());
+        assertEquals(2, activity.dispatchCount);
+    }
+
+    @Test
+    public void cancelledOwner_releasesTheHelperAttachedToItsRequest() throws Exception {
+        SimulatedActivity activity = newActivity(1);
+        Outcome busy = new Outcome();
+        Outcome owner = new Outcome();
+        Outcome attached = new Outcome();
+
+        // the dialog is busy, the owner's request is queued and the second helper attaches to it
+        PermissionHelper.checkRequestPermission(activity, busy, Permissions.newSubPermissions(SMS, true));
+        PermissionHelper ownerHelper = PermissionHelper.checkRequestPermission(activity, owner, Permissions.newSubPermissions(CONTACTS, true));
+        PermissionHelper.checkRequestPermission(activity, attached, Permissions.newSubPermissions(CONTACTS, true));
+        assertTrue(InFlightRequests.isInFlight(CONTACTS));
+
+        ownerHelper.cancel();
+        loop.runUntilIdle(random, 1);
+
+        assertEquals(1, busy.successCount);
+        assertEquals(0, owner.successCount + owner.failCount);
+        assertEquals(1, attached.successCount);
+        assertFalse(InFlightRequests.isInFlight(CONTACTS));
+        assertEquals(2, activity.requestCount);
+    }
+
+    @Test
+    public void grantedUpFront_sharedHandleIsReturned_andItsCallbacksAreCalled() throws Exception {
+        SimulatedActivity activity = newActivity(1);
+        activity.setState(CONTACTS, SimulatedActivity.GRANTED);
+        Outcome outcome = new Outcome();
+        Outcome setLater = new Outcome();
+        final int[] finalResultSizes = {-1};
+        final List<String[]> deltas = new ArrayList<>();
+
+        PermissionHelper helper = PermissionHelper.checkRequestPermission(activity, outcome, Permissions.newSubPermissions(CONTACTS, true))
+                .setPermissionCallBack(setLater)
+                .setPermissionResultCallBack(new PermissionHelper.PermissionResultCallBack() {
+                    @Override
+                    public void onUpdate(SimpleArrayMap result) {
+                    }
+
+                    @Override
+                    public void onFinalResult(SimpleArrayMap result) {
+                        finalResultSizes[0] = result.size();
+                    }
+                })
+                .setPermissionDeltaCallBack(new PermissionHelper.PermissionDeltaCallBack() {
+                    @Override
+                    public void onChange(PermissionSnapshot snapshot, String[] changed) {
+                        assertTrue(snapshot.isSatisfied());
+                        deltas.add(changed);
+                    }
+                });
+
+        assertSame(PermissionHelper.COMPLETED, helper);
+        assertSame(helper, PermissionHelper.checkRequestPermission(activity, null, Permissions.newSubPermissions(CONTACTS, true)));
+        assertTrue(helper.isCompleted());
+        assertEquals(1, outcome.successCount);
+        assertEquals(1, setLater.successCount);
+        // shared by every request granted up front, the handle doesn't know their permissions
+        assertEquals(0, finalResultSizes[0]);
+        assertEquals(1, deltas.size());
+        assertEquals(0, deltas.get(0).length);
+        assertTrue(helper.getResult().isSatisfied());
+        assertEquals(0, activity.requestCount);
+    }
+
+    @Test
+    public void grantedUpFront_asyncResultHasThePermissions() throws Exception {
+        SimulatedActivity activity = newActivity(1);
+        activity.setState(CONTACTS, SimulatedActivity.GRANTED);
+
+        PermissionFuture<PermissionSnapshot> future = PermissionHelper.checkRequestPermissionAsync(activity, Permissions.newSubPermissions(CONTACTS, true));
+
+        assertTrue(future.isDone());
+        assertTrue(future.get().isGranted(CONTACTS));
+        assertEquals(0, activity.requestCount);
+    }
+
+    @Test
+    public void backFromSettingsAfterTheEnd_finalResultIsNotDeliveredTwice() throws Exception {
+        final int[] settingsRequestCode = new int[1];
+        SimulatedActivity activity = new SimulatedActivity(loop, random, 0, 0) {
+            @Override
+            public void startActivityForResult(Intent intent, int requestCode) {
+                settingsRequestCode[0] = requestCode;
+            }
+        };
+        PermissionDenialHistory.clear(activity);
+        Outcome outcome = new Outcome();
+        final int[] finalResultCount = new int[1];
+        final int[] updateCount = new int[1];
+
+        PermissionHelper helper = PermissionHelper.checkRequestPermission(activity, outcome, Permissions.newSubPermissions(CONTACTS, true))
+                .setPermissionResultCallBack(new PermissionHelper.PermissionResultCallBack() {
+                    @Override
+                    public void onUpdate(SimpleArrayMap result) {
+                        updateCount[0]++;
+                    }
+
+                    @Override
+                    public void onFinalResult(SimpleArrayMap result) {
+                        finalResultCount[0]++;
+                    }
+                });
+        loop.runUntilIdle(random, 1);
+        assertEquals(1, outcome.failCount);
+        long flowsFailed = PermissionMetrics.getCounter(PermissionMetrics.FLOWS_FAILED);
+        long flowsSucceededBefore = PermissionMetrics.getCounter(PermissionMetrics.FLOWS_SUCCEEDED);
+
+        // the user grants it from the settings screen
+        helper.openAppSettingAndResume(activity);
+        activity.setState(CONTACTS, SimulatedActivity.GRANTED);
+        int updatesBefore = updateCount[0];
+        PermissionResultDispatcher.dispatchActivityResult(settingsRequestCode[0]);
+        loop.runUntilIdle(random, 1);
+
+        assertTrue(helper.getResult().isGranted(CONTACTS));
+        assertEquals(1, finalResultCount[0]);
+        assertTrue(updateCount[0] > updatesBefore);
+        assertEquals(1, outcome.failCount);
+        assertEquals(0, outcome.successCount);
+        assertEquals(flowsFailed, PermissionMetrics.getCounter(PermissionMetrics.FLOWS_FAILED));
+        assertEquals(0, PermissionMetrics.getCounter(PermissionMetrics.FLOWS_SUCCEEDED) - flowsSucceededBefore);
+    }
+
+    @Test
+    public void grantedInSettings_afterAStaleBackgroundCheck_isSeenOnTheWayBack() throws Exception {
+        final int[] settingsRequestCode = new int[1];
+        SimulatedActivity activity = new SimulatedActivity(loop, random, 0, 0) {
+            @Override
+            public void startActivityForResult(Intent intent, int requestCode) {
+                settingsRequestCode[0] = requestCode;
+            }
+        };
+        PermissionDenialHistory.clear(activity);
+        Outcome outcome = new Outcome();
+
+        PermissionHelper helper = PermissionHelper.checkRequestPermission(activity, outcome, Permissions.newSubPermissions(CONTACTS, true));
+        loop.runUntilIdle(random, 1);
+        assertFalse(helper.getResult().isGranted(CONTACTS));
+
+        helper.openAppSettingAndResume(activity);
+        // e.g. a background job checks while the settings screen is open, before the user grants it there
+        assertFalse(PermissionHelper.hasPermission(activity, CONTACTS));
+        activity.setState(CONTACTS, SimulatedActivity.GRANTED);
+        PermissionResultDispatcher.dispatchActivityResult(settingsRequestCode[0]);
+        loop.runUntilIdle(random, 1);
+
+        assertTrue(helper.getResult().isGranted(CONTACTS));
+        assertTrue(PermissionHelper.hasPermission(activity, CONTACTS));
+    }
+
+    private SimulatedActivity newActivity(final PackageManager packageManager) {
+        PermissionGroups.clear();
+        SimulatedActivity activity = new SimulatedActivity(loop, random, 1, 0) {
+            @Override
+            public PackageManager getPackageManager() {
+                return packageManager;
+            }
+        };
+        PermissionDenialHistory.clear(activity);
+        return activity;
+    }
+
+    @Test
+    public void samePlatformGroup_isAskedInOneRoundTrip() throws Exception {
+        SimulatedActivity activity = newActivity(new PermissionGroupsTest.GroupPackageManager()
+                .with(CONTACTS, "android.permission-group.CONTACTS")
+                .with(WRITE_CONTACTS, "android.permission-group.CONTACTS"));
+        Outcome outcome = new Outcome();
+
+        PermissionHelper helper = PermissionHelper.checkRequestPermission(activity, outcome,
+                Permissions.newSubPermissions(CONTACTS, true), Permissions.newSubPermissions(WRITE_CONTACTS, true));
+        loop.runUntilIdle(random, 1);
+
+        assertEquals(1, outcome.successCount);
+        assertTrue(helper.getResult().isGranted(WRITE_CONTACTS));
+        assertEquals(1, activity.requestCount);
+    }
+
+    @Test
+    public void undefinedPlatformGroup_isNotAskedTogether() throws Exception {
+        // API 29+: every permission reports the same UNDEFINED group
+        SimulatedActivity activity = newActivity(new PermissionGroupsTest.GroupPackageManager()
+                .with(CONTACTS, PermissionGroups.UNDEFINED)
+                .with(SMS, PermissionGroups.UNDEFINED));
+        Outcome outcome = new Outcome();
+
+        PermissionHelper.checkRequestPermission(activity, outcome,
+                Permissions.newSubPermissions(CONTACTS, true), Permissions.newSubPermissions(SMS, true));
+        loop.runUntilIdle(random, 1);
+
+        assertEquals(1, outcome.successCount);
+        assertEquals(2, activity.requestCount);
+    }
+
+    @Test
+    public void listener_getsThePackageManagerCallsOfTheFlow() throws Exception {
+        SimulatedActivity activity = newActivity(1);
+        activity.setState(SMS, SimulatedActivity.DENIED);
+        final List<Integer> reported = new ArrayList<>();
+        PermissionMetrics.setListener(new PermissionMetrics.Listener() {
+            @Override
+            public void onFlowFinished(long durationNanos, boolean satisfied, int rationalesShown, int roundTrips, int packageManagerCalls) {
+                reported.add(packageManagerCalls);
+            }
+
+            @Override
+            public void onRoundTrip(int requestCode, String[] permissions, long durationNanos, boolean interrupted) {
+            }
+        });
+        try {
+            PermissionHelper.checkRequestPermission(activity, new Outcome(),
+                    Permissions.newSubPermissions(CONTACTS, true), Permissions.newSubPermissions(SMS, true));
+            loop.runUntilIdle(random, 1);
+        } finally {
+            PermissionMetrics.setListener(null);
+        }
+
+        assertEquals(1, reported.size());
+        assertTrue(reported.get(0) > 0);
+        assertEquals(activity.checkCount + activity.rationaleCheckCount, (int) reported.get(0));
+    }
+
+    @Test
+    public void declinedRationale_deniesTheEntryAndTheFlowGoesOn() throws Exception {
+        SimulatedActivity activity = newActivity(1);
+        activity.setState(CONTACTS, SimulatedActivity.DENIED);
+
+        PermissionFuture<PermissionSnapshot> future = PermissionHelper.checkRequestPermissionAsync(activity,
+                Permissions.newPermissions(CONTACTS, "Contacts", "To find your friends"),
+                Permissions.newSubPermissions(SMS, true));
+        // the simulated user declines every rationale
+        loop.runUntilIdle(random, 0);
+
+        assertEquals(1, loop.rationales);
+        assertTrue(future.isDone());
+        PermissionSnapshot snapshot = future.get();
+        assertTrue(snapshot.isAnswered(CONTACTS));
+        assertFalse(snapshot.isGranted(CONTACTS));
+        assertTrue(snapshot.isGranted(SMS));
+        assertFalse(snapshot.isSatisfied());
+        // only SMS has been asked to the system
+        assertEquals(1, activity.requestCount);
+    }
+}
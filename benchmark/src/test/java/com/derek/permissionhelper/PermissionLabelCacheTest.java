@@ -0,0 +1,105 @@
+package com.derek.permissionhelper;
+
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.PermissionInfo;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+public class PermissionLabelCacheTest {
+    private static final String CAMERA = "android.permission.CAMERA";
+    private static final String SMS = "android.permission.READ_SMS";
+
+    private final Locale defaultLocale = Locale.getDefault();
+
+    /**
+     * labels in the default locale, counting the lookups
+     */
+    private static final class LabelPackageManager extends PackageManager {
+        int lookupCount;
+
+        @Override
+        public PermissionInfo getPermissionInfo(final String name, int flags) throws NameNotFoundException {
+            lookupCount++;
+            final Locale locale = Locale.getDefault();
+            PermissionInfo permissionInfo = new PermissionInfo() {
+                @Override
+                public CharSequence loadLabel(PackageManager packageManager) {
+                    return name + " (" + locale.getLanguage() + ")";
+                }
+            };
+            permissionInfo.name = name;
+            return permissionInfo;
+        }
+
+        @Override
+        public PackageInfo getPackageInfo(String packageName, int flags) throws NameNotFoundException {
+            throw new NameNotFoundException(packageName);
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        PermissionHelper.RLog.setLevel(PermissionHelper.RLog.NONE);
+        PermissionPreflight.reset();
+        PermissionLabelCache.clear();
+        Locale.setDefault(Locale.ENGLISH);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Locale.setDefault(defaultLocale);
+    }
+
+    @Test
+    public void label_isLoadedOnce() throws Exception {
+        LabelPackageManager packageManager = new LabelPackageManager();
+
+        assertEquals(CAMERA + " (en)", PermissionHelper.getPermissionLabel(CAMERA, packageManager).toString());
+        assertEquals(CAMERA + " (en)", PermissionHelper.getPermissionLabel(CAMERA, packageManager).toString());
+        // description comes with the same entry
+        PermissionHelper.getPermissionDescription(CAMERA, packageManager);
+        assertEquals(1, packageManager.lookupCount);
+
+        PermissionHelper.getPermissionLabel(SMS, packageManager);
+        assertEquals(2, packageManager.lookupCount);
+    }
+
+    @Test
+    public void unknownPermission_isCachedWithItsNameAsLabel() throws Exception {
+        PackageManager packageManager = PackageManager.EMPTY;
+
+        assertEquals(CAMERA, PermissionHelper.getPermissionLabel(CAMERA, packageManager).toString());
+        assertNull(PermissionHelper.getPermissionDescription(CAMERA, packageManager));
+    }
+
+    @Test
+    public void localeChange_loadsTheLabelAgain() throws Exception {
+        LabelPackageManager packageManager = new LabelPackageManager();
+        PermissionHelper.getPermissionLabel(CAMERA, packageManager);
+
+        Locale.setDefault(Locale.FRENCH);
+        assertEquals(CAMERA + " (fr)", PermissionHelper.getPermissionLabel(CAMERA, packageManager).toString());
+        assertEquals(2, packageManager.lookupCount);
+
+        // both are kept, switching back is a hit
+        Locale.setDefault(Locale.ENGLISH);
+        assertEquals(CAMERA + " (en)", PermissionHelper.getPermissionLabel(CAMERA, packageManager).toString());
+        assertEquals(2, packageManager.lookupCount);
+    }
+
+    @Test
+    public void entryOfAnotherLocale_isNotUsed() throws Exception {
+        LabelPackageManager packageManager = new LabelPackageManager();
+        PermissionLabelCache.put(CAMERA, Locale.FRENCH, new PermissionLabelCache.Entry("appareil photo", null));
+
+        assertEquals(CAMERA + " (en)", PermissionHelper.getPermissionLabel(CAMERA, packageManager).toString());
+        assertEquals(1, packageManager.lookupCount);
+    }
+}
@@ -0,0 +1,124 @@
+package com.derek.permissionhelper;
+
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.PermissionInfo;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PermissionPreflightTest {
+    private static final String CAMERA = "android.permission.CAMERA";
+    private static final String SMS = "android.permission.READ_SMS";
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    /**
+     * the manifest declares CAMERA (granted) and READ_SMS (not granted), both dangerous
+     */
+    private static class ManifestPackageManager extends PackageManager {
+        int labelLoads;
+
+        @Override
+        public PermissionInfo getPermissionInfo(final String name, int flags) throws NameNotFoundException {
+            PermissionInfo permissionInfo = new PermissionInfo() {
+                @Override
+                public CharSequence loadLabel(PackageManager packageManager) {
+                    labelLoads++;
+                    return "label of " + name;
+                }
+            };
+            permissionInfo.name = name;
+            permissionInfo.protectionLevel = PermissionInfo.PROTECTION_DANGEROUS;
+            return permissionInfo;
+        }
+
+        @Override
+        public PackageInfo getPackageInfo(String packageName, int flags) throws NameNotFoundException {
+            PackageInfo packageInfo = new PackageInfo();
+            packageInfo.requestedPermissions = new String[]{CAMERA, SMS};
+            packageInfo.requestedPermissionsFlags = new int[]{PackageInfo.REQUESTED_PERMISSION_GRANTED, 0};
+            return packageInfo;
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        PermissionHelper.RLog.setLevel(PermissionHelper.RLog.NONE);
+        PermissionPreflight.reset();
+        PermissionStatusCache.invalidate();
+        PermissionLabelCache.clear();
+    }
+
+    private SimulatedActivity newActivity(final PackageManager packageManager) {
+        return new SimulatedActivity(new FlowSimulator.EventLoop(), new Random(42), 1, 0) {
+            @Override
+            public PackageManager getPackageManager() {
+                return packageManager;
+            }
+        };
+    }
+
+    private static void awaitReady() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (! PermissionPreflight.isReady()) {
+            assertTrue("preflight never finished", System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    public void fillsTheStatusAndLabelCaches() throws Exception {
+        ManifestPackageManager packageManager = new ManifestPackageManager();
+        SimulatedActivity activity = newActivity(packageManager);
+
+        PermissionPreflight.start(activity);
+        awaitReady();
+
+        assertEquals(Boolean.TRUE, PermissionStatusCache.get(CAMERA));
+        assertEquals(Boolean.FALSE, PermissionStatusCache.get(SMS));
+        assertEquals(2, packageManager.labelLoads);
+        // answered from the index, no IPC
+        assertEquals("label of " + SMS, PermissionHelper.getPermissionLabel(SMS, packageManager).toString());
+        assertNotNull(PermissionPreflight.getLabels(SMS, Locale.getDefault()));
+        assertEquals(2, packageManager.labelLoads);
+        assertEquals(0, activity.checkCount);
+    }
+
+    @Test
+    public void invalidatedWhileRunning_writesNoStatus() throws Exception {
+        ManifestPackageManager packageManager = new ManifestPackageManager() {
+            @Override
+            public PackageInfo getPackageInfo(String packageName, int flags) throws NameNotFoundException {
+                PackageInfo packageInfo = super.getPackageInfo(packageName, flags);
+                // e.g. back from the settings screen while the snapshot was being taken
+                PermissionStatusCache.invalidate();
+                return packageInfo;
+            }
+        };
+
+        PermissionPreflight.start(newActivity(packageManager));
+        awaitReady();
+
+        assertNull(PermissionStatusCache.get(CAMERA));
+        assertNull(PermissionStatusCache.get(SMS));
+        assertEquals(0, PermissionStatusCache.size());
+        // labels don't depend on the grant state, they are still indexed
+        assertNotNull(PermissionPreflight.getLabels(CAMERA, Locale.getDefault()));
+    }
+
+    @Test
+    public void startedOnce() throws Exception {
+        ManifestPackageManager packageManager = new ManifestPackageManager();
+
+        PermissionPreflight.start(newActivity(packageManager));
+        PermissionPreflight.start(newActivity(packageManager));
+        awaitReady();
+
+        assertEquals(2, packageManager.labelLoads);
+    }
+}
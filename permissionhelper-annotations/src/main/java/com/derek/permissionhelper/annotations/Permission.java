@@ -0,0 +1,30 @@
+package com.derek.permissionhelper.annotations;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * One permission of a {@link PermissionRequest}
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target({})
+public @interface Permission {
+    /**
+     * e.g. {@code Manifest.permission.READ_CONTACTS}
+     */
+    String value();
+
+    /**
+     * the flow fails if it isn't granted
+     */
+    boolean critical() default true;
+
+    /**
+     * rationale shown when the user has denied it once, the label of the permission if empty.
+     * No rationale if both the title and the message are empty. Not allowed inside a group, the group has the rationale.
+     */
+    String title() default "";
+
+    String message() default "";
+}
@@ -0,0 +1,21 @@
+package com.derek.permissionhelper.annotations;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Permissions of a {@link PermissionRequest} sharing the same rationale, asked together
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target({})
+public @interface PermissionGroup {
+    Permission[] value();
+
+    /**
+     * no rationale if both the title and the message are empty
+     */
+    String title() default "";
+
+    String message() default "";
+}
@@ -0,0 +1,47 @@
+package com.derek.permissionhelper.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares a permission request on a method or a class. At build time permissionhelper-compiler generates, next to
+ * the enclosing class {@code Foo}, a class {@code Foo_PermissionPlans} holding one static, immutable
+ * {@code PermissionPlan} per request and a static entry point to start it:
+ * <pre>
+ * &#64;PermissionRequest(value = &#64;Permission(value = Manifest.permission.READ_CONTACTS, message = "To find your friends"),
+ *         groups = &#64;PermissionGroup(message = "To sync your day", value = {
+ *                 &#64;Permission(value = Manifest.permission.READ_CALENDAR, critical = false),
+ *                 &#64;Permission(value = Manifest.permission.WRITE_CALENDAR, critical = false)}))
+ * void syncContacts() {
+ *     Foo_PermissionPlans.requestSyncContacts(activity, callBack);
+ * }
+ * </pre>
+ * The entries are asked in order: the single permissions first, then the groups.
+ * Mistakes in the specs (unknown permission, empty group, same permission twice...) are compile errors.
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target({ElementType.METHOD, ElementType.TYPE})
+public @interface PermissionRequest {
+    /**
+     * name of the generated plan ({@code SYNC_CONTACTS}) and entry point ({@code requestSyncContacts}),
+     * the name of the method / class by default
+     */
+    String name() default "";
+
+    /**
+     * single permissions, each one is an entry
+     */
+    Permission[] value() default {};
+
+    /**
+     * groups of permissions, each one is an entry
+     */
+    PermissionGroup[] groups() default {};
+
+    /**
+     * every entry without a rationale is asked in one single system dialog round-trip
+     */
+    boolean batched() default false;
+}
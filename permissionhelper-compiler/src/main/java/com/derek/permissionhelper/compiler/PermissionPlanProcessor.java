@@ -0,0 +1,309 @@
+package com.derek.permissionhelper.compiler;
+
+import com.derek.permissionhelper.annotations.Permission;
+import com.derek.permissionhelper.annotations.PermissionGroup;
+import com.derek.permissionhelper.annotations.PermissionRequest;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.util.Elements;
+import javax.tools.Diagnostic;
+
+/**
+ * Generates {@code Foo_PermissionPlans} for every class {@code Foo} with {@link PermissionRequest} annotations
+ * (on itself or on its methods): a static final {@code PermissionPlan} per request, built once when the class is
+ * loaded, and a static {@code requestXxx(Activity, PermissionCallBack)} entry point, no reflection involved.
+ * The specs are checked here, a wrong one is a compile error on the annotated element.
+ */
+public final class PermissionPlanProcessor extends AbstractProcessor {
+    private static final String LIBRARY_PACKAGE = "com.derek.permissionhelper";
+    private static final String SUFFIX = "_PermissionPlans";
+    private static final String PLATFORM_PREFIX = "android.permission.";
+    private static final Pattern PERMISSION_PATTERN = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*(\\.[A-Za-z_][A-Za-z0-9_]*)+");
+
+    private Elements elements;
+    private Filer filer;
+    private Messager messager;
+    // constants of android.Manifest.permission, null if the platform isn't on the class path
+    private Set<String> platformPermissions;
+
+    @Override
+    public synchronized void init(ProcessingEnvironment processingEnv) {
+        super.init(processingEnv);
+        elements = processingEnv.getElementUtils();
+        filer = processingEnv.getFiler();
+        messager = processingEnv.getMessager();
+    }
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return Collections.singleton(PermissionRequest.class.getCanonicalName());
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        // requests grouped by the class the plans are generated for, in source order
+        Map<TypeElement, List<Element>> requests = new LinkedHashMap<>();
+        for (Element element : roundEnv.getElementsAnnotatedWith(PermissionRequest.class)) {
+            TypeElement type = element.getKind() == ElementKind.METHOD || element.getKind() == ElementKind.CONSTRUCTOR ?
+                    (TypeElement) element.getEnclosingElement() :
+                    (TypeElement) element;
+            List<Element> list = requests.get(type);
+            if (list == null) {
+                list = new ArrayList<>();
+                requests.put(type, list);
+            }
+            list.add(element);
+        }
+        for (Map.Entry<TypeElement, List<Element>> entry : requests.entrySet()) {
+            generate(entry.getKey(), entry.getValue());
+        }
+        return true;
+    }
+
+    private void generate(TypeElement type, List<Element> annotated) {
+        List<String> names = new ArrayList<>();
+        StringBuilder body = new StringBuilder();
+        boolean valid = true;
+        for (Element element : annotated) {
+            PermissionRequest request = element.getAnnotation(PermissionRequest.class);
+            String name = request.name().isEmpty() ? element.getSimpleName().toString() : request.name();
+            String plan = check(element, request, name, names) ? planExpression(request) : null;
+            if (plan == null) {
+                valid = false;
+                continue;
+            }
+            names.add(name);
+            writePlan(body, element, name, plan, request.batched());
+        }
+        if (! valid) return;
+
+        PackageElement packageElement = elements.getPackageOf(type);
+        String packageName = packageElement.isUnnamed() ? "" : packageElement.getQualifiedName().toString();
+        String className = generatedName(type);
+        StringBuilder source = new StringBuilder();
+        if (! packageName.isEmpty()) source.append("package ").append(packageName).append(";\n\n");
+        source.append("import android.app.Activity;\n\n")
+                .append("import ").append(LIBRARY_PACKAGE).append(".PermissionHelper;\n")
+                .append("import ").append(LIBRARY_PACKAGE).append(".PermissionHelper.PermissionCallBack;\n")
+                .append("import ").append(LIBRARY_PACKAGE).append(".PermissionHelper.Permissions;\n")
+                .append("import ").append(LIBRARY_PACKAGE).append(".PermissionPlan;\n\n")
+                .append("/**\n * Generated by ").append(PermissionPlanProcessor.class.getSimpleName())
+                .append(" from the @PermissionRequest annotations of {@link ").append(type.getQualifiedName())
+                .append("}, don't edit.\n */\n")
+                .append("public final class ").append(className).append(" {\n")
+                .append(body)
+                .append("    private ").append(className).append("() {}\n")
+                .append("}\n");
+
+        String qualifiedName = packageName.isEmpty() ? className : packageName + "." + className;
+        try (Writer writer = filer.createSourceFile(qualifiedName, annotated.toArray(new Element[annotated.size()])).openWriter()) {
+            writer.write(source.toString());
+        } catch (IOException e) {
+            messager.printMessage(Diagnostic.Kind.ERROR, "Can't write " + qualifiedName + ": " + e.getMessage(), type);
+        }
+    }
+
+    private static String generatedName(TypeElement type) {
+        StringBuilder name = new StringBuilder(type.getSimpleName());
+        for (Element enclosing = type.getEnclosingElement(); enclosing instanceof TypeElement; enclosing = enclosing.getEnclosingElement()) {
+            name.insert(0, '_').insert(0, enclosing.getSimpleName());
+        }
+        return name.append(SUFFIX).toString();
+    }
+
+    private static void writePlan(StringBuilder body, Element element, String name, String plan, boolean batched) {
+        String constant = constantName(name);
+        body.append("    /**\n     * {@code @PermissionRequest} of ").append(element.getSimpleName()).append("\n     */\n")
+                .append("    public static final PermissionPlan ").append(constant).append(" = ").append(plan).append(";\n\n")
+                .append("    public static PermissionHelper request").append(Character.toUpperCase(name.charAt(0))).append(name.substring(1))
+                .append("(Activity activity, PermissionCallBack permissionCallBack) {\n")
+                .append("        return PermissionHelper.").append(batched ? "checkRequestPermissionBatched" : "checkRequestPermission")
+                .append("(activity, permissionCallBack, ").append(constant).append(");\n")
+                .append("    }\n\n");
+    }
+
+    /**
+     * syncContacts -> SYNC_CONTACTS
+     */
+    static String constantName(String name) {
+        StringBuilder constant = new StringBuilder(name.length() + 4);
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (Character.isUpperCase(c) && i > 0 && ! Character.isUpperCase(name.charAt(i - 1)) && name.charAt(i - 1) != '_') {
+                constant.append('_');
+            }
+            constant.append(Character.toUpperCase(c));
+        }
+        return constant.toString();
+    }
+
+    /* Checks */
+
+    private boolean check(Element element, PermissionRequest request, String name, List<String> names) {
+        AnnotationMirror mirror = getMirror(element);
+        boolean valid = true;
+        if (! SourceVersion.isIdentifier(name) || SourceVersion.isKeyword(name)) {
+            valid = error(element, mirror, "\"" + name + "\" is not a valid name for a permission plan");
+        } else {
+            for (String other : names) {
+                if (constantName(other).equals(constantName(name))) {
+                    valid = error(element, mirror, "Another @PermissionRequest of this class is already named \"" + other + "\", set a name");
+                }
+            }
+        }
+        if (request.value().length == 0 && request.groups().length == 0) {
+            valid = error(element, mirror, "@PermissionRequest without any permission");
+        }
+
+        Set<String> singles = new HashSet<>();
+        for (Permission permission : request.value()) {
+            valid &= checkPermission(element, mirror, permission.value());
+            if (! singles.add(permission.value())) {
+                valid = error(element, mirror, permission.value() + " is requested twice");
+            }
+        }
+        for (PermissionGroup group : request.groups()) {
+            if (group.value().length == 0) {
+                valid = error(element, mirror, "@PermissionGroup without any permission");
+            }
+            Set<String> members = new HashSet<>();
+            for (Permission permission : group.value()) {
+                valid &= checkPermission(element, mirror, permission.value());
+                if (! members.add(permission.value())) {
+                    valid = error(element, mirror, permission.value() + " is twice in the same @PermissionGroup");
+                }
+                if (! permission.title().isEmpty() || ! permission.message().isEmpty()) {
+                    valid = error(element, mirror, "The rationale of " + permission.value()
+                            + " is never shown, the permissions of a @PermissionGroup share the rationale of the group");
+                }
+            }
+        }
+        return valid;
+    }
+
+    private boolean checkPermission(Element element, AnnotationMirror mirror, String permission) {
+        if (! PERMISSION_PATTERN.matcher(permission).matches()) {
+            return error(element, mirror, "\"" + permission + "\" is not a permission name");
+        }
+        Set<String> platform = getPlatformPermissions();
+        if (platform != null && permission.startsWith(PLATFORM_PREFIX) && ! platform.contains(permission)) {
+            return error(element, mirror, "Unknown platform permission " + permission);
+        }
+        return true;
+    }
+
+    private Set<String> getPlatformPermissions() {
+        if (platformPermissions == null) {
+            TypeElement manifest = elements.getTypeElement("android.Manifest.permission");
+            if (manifest == null) return null;
+            platformPermissions = new HashSet<>();
+            for (Element field : manifest.getEnclosedElements()) {
+                if (field.getKind() != ElementKind.FIELD) continue;
+                Object value = ((VariableElement) field).getConstantValue();
+                if (value instanceof String) platformPermissions.add((String) value);
+            }
+        }
+        return platformPermissions;
+    }
+
+    private static AnnotationMirror getMirror(Element element) {
+        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            if (mirror.getAnnotationType().toString().equals(PermissionRequest.class.getCanonicalName())) return mirror;
+        }
+        return null;
+    }
+
+    private boolean error(Element element, AnnotationMirror mirror, String message) {
+        messager.printMessage(Diagnostic.Kind.ERROR, message, element, mirror);
+        return false;
+    }
+
+    /* Code */
+
+    private static String planExpression(PermissionRequest request) {
+        StringBuilder plan = new StringBuilder("PermissionPlan.compile(");
+        String separator = "\n            ";
+        for (Permission permission : request.value()) {
+            plan.append(separator);
+            separator = ",\n            ";
+            if (permission.title().isEmpty() && permission.message().isEmpty()) {
+                appendSub(plan, permission);
+            } else {
+                plan.append("Permissions.newPermissions(").append(literal(permission.value())).append(", ").append(permission.critical())
+                        .append(", ").append(literal(permission.title())).append(", ").append(literal(permission.message())).append(')');
+            }
+        }
+        for (PermissionGroup group : request.groups()) {
+            plan.append(separator);
+            separator = ",\n            ";
+            plan.append("Permissions.newPermissionGroup(");
+            if (! group.title().isEmpty() || ! group.message().isEmpty()) {
+                plan.append(literal(group.title())).append(", ").append(literal(group.message())).append(",");
+            }
+            String subSeparator = "\n                    ";
+            for (Permission permission : group.value()) {
+                plan.append(subSeparator);
+                subSeparator = ",\n                    ";
+                appendSub(plan, permission);
+            }
+            plan.append(')');
+        }
+        return plan.append(')').toString();
+    }
+
+    private static void appendSub(StringBuilder plan, Permission permission) {
+        plan.append("Permissions.newSubPermissions(").append(literal(permission.value())).append(", ").append(permission.critical()).append(')');
+    }
+
+    /**
+     * Java literal of the string, null if empty (the library then falls back to the label / description of the permission)
+     */
+    static String literal(String value) {
+        if (value.isEmpty()) return "null";
+        StringBuilder literal = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': literal.append("\\\""); break;
+                case '\\': literal.append("\\\\"); break;
+                case '\n': literal.append("\\n"); break;
+                case '\r': literal.append("\\r"); break;
+                case '\t': literal.append("\\t"); break;
+                default:
+                    if (c < 0x20 || c > 0x7e) {
+                        literal.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        literal.append(c);
+                    }
+            }
+        }
+        return literal.append('"').toString();
+    }
+}
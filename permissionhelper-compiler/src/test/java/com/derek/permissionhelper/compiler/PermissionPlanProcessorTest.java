@@ -0,0 +1,188 @@
+package com.derek.permissionhelper.compiler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import static org.junit.Assert.*;
+
+public class PermissionPlanProcessorTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    // stands for the platform class, the processor checks android.permission.* against it
+    private static final String MANIFEST = "package android;\n"
+            + "public final class Manifest {\n"
+            + "    public static final class permission {\n"
+            + "        public static final String READ_CONTACTS = \"android.permission.READ_CONTACTS\";\n"
+            + "        public static final String READ_SMS = \"android.permission.READ_SMS\";\n"
+            + "        public static final String READ_CALENDAR = \"android.permission.READ_CALENDAR\";\n"
+            + "    }\n"
+            + "}\n";
+    // the API of the library the generated code calls, so that it gets compiled too
+    private static final String ACTIVITY = "package android.app;\n"
+            + "public class Activity {}\n";
+    private static final String PLAN = "package com.derek.permissionhelper;\n"
+            + "public final class PermissionPlan {\n"
+            + "    public static PermissionPlan compile(PermissionHelper.Permissions... permissions) { return null; }\n"
+            + "}\n";
+    private static final String HELPER = "package com.derek.permissionhelper;\n"
+            + "import android.app.Activity;\n"
+            + "public class PermissionHelper {\n"
+            + "    public interface PermissionCallBack {}\n"
+            + "    public static final class Permissions {\n"
+            + "        public static Permissions newPermissionGroup(Permissions... permissions) { return null; }\n"
+            + "        public static Permissions newPermissionGroup(String title, String message, Permissions... permissions) { return null; }\n"
+            + "        public static Permissions newSubPermissions(String permission, boolean critical) { return null; }\n"
+            + "        public static Permissions newPermissions(String permission, boolean critical, String title, String message) { return null; }\n"
+            + "    }\n"
+            + "    public static PermissionHelper checkRequestPermission(Activity activity, PermissionCallBack callBack, PermissionPlan plan) { return null; }\n"
+            + "    public static PermissionHelper checkRequestPermissionBatched(Activity activity, PermissionCallBack callBack, PermissionPlan plan) { return null; }\n"
+            + "}\n";
+
+    private File directory;
+    private final DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("processor").toFile();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        delete(directory);
+    }
+
+    @Test
+    public void generatesStaticPlanAndEntryPoint() throws Exception {
+        boolean success = process("package demo;\n"
+                + "import com.derek.permissionhelper.annotations.*;\n"
+                + "class Contacts {\n"
+                + "    @PermissionRequest(value = @Permission(value = \"android.permission.READ_CONTACTS\", message = \"To find \\\"friends\\\"\"),\n"
+                + "            groups = @PermissionGroup(title = \"Title\", value = {\n"
+                + "                    @Permission(value = \"android.permission.READ_SMS\", critical = false),\n"
+                + "                    @Permission(value = \"android.permission.READ_CALENDAR\", critical = false)}),\n"
+                + "            batched = true)\n"
+                + "    void syncContacts() {}\n"
+                + "    static class Inner {\n"
+                + "        @PermissionRequest(name = \"readSms\", value = @Permission(\"android.permission.READ_SMS\"))\n"
+                + "        void read() {}\n"
+                + "    }\n"
+                + "}\n");
+
+        assertTrue(diagnostics.getDiagnostics().toString(), success);
+        String generated = read("demo/Contacts_PermissionPlans.java");
+        assertTrue(generated, generated.contains("public static final PermissionPlan SYNC_CONTACTS = PermissionPlan.compile("));
+        assertTrue(generated, generated.contains("Permissions.newPermissions(\"android.permission.READ_CONTACTS\", true, null, \"To find \\\"friends\\\"\")"));
+        assertTrue(generated, generated.contains("Permissions.newPermissionGroup(\"Title\", null,\n"));
+        assertTrue(generated, generated.contains("Permissions.newSubPermissions(\"android.permission.READ_CALENDAR\", false)"));
+        assertTrue(generated, generated.contains("public static PermissionHelper requestSyncContacts(Activity activity, PermissionCallBack permissionCallBack)"));
+        assertTrue(generated, generated.contains("PermissionHelper.checkRequestPermissionBatched(activity, permissionCallBack, SYNC_CONTACTS)"));
+
+        String inner = read("demo/Contacts_Inner_PermissionPlans.java");
+        assertTrue(inner, inner.contains("public static final PermissionPlan READ_SMS = "));
+        assertTrue(inner, inner.contains("PermissionHelper.checkRequestPermission(activity, permissionCallBack, READ_SMS)"));
+    }
+
+    @Test
+    public void wrongSpecs_areCompileErrors() throws Exception {
+        assertFalse(process("package demo;\n"
+                + "import com.derek.permissionhelper.annotations.*;\n"
+                + "class Wrong {\n"
+                + "    @PermissionRequest(@Permission(\"android.permission.READ_CONTACT\"))\n"
+                + "    void typo() {}\n"
+                + "    @PermissionRequest\n"
+                + "    void empty() {}\n"
+                + "    @PermissionRequest(groups = @PermissionGroup({\n"
+                + "            @Permission(\"android.permission.READ_SMS\"),\n"
+                + "            @Permission(value = \"android.permission.READ_SMS\", message = \"lost\")}))\n"
+                + "    void group() {}\n"
+                + "    @PermissionRequest(name = \"typo\", value = @Permission(\"READ_SMS\"))\n"
+                + "    void clash() {}\n"
+                + "}\n"));
+
+        List<String> errors = errors();
+        assertTrue(errors.toString(), errors.contains("Unknown platform permission android.permission.READ_CONTACT"));
+        assertTrue(errors.toString(), errors.contains("@PermissionRequest without any permission"));
+        assertTrue(errors.toString(), errors.contains("android.permission.READ_SMS is twice in the same @PermissionGroup"));
+        assertTrue(errors.toString(), errors.contains("The rationale of android.permission.READ_SMS is never shown, "
+                + "the permissions of a @PermissionGroup share the rationale of the group"));
+        assertTrue(errors.toString(), errors.contains("\"READ_SMS\" is not a permission name"));
+        assertFalse(new File(directory, "demo/Wrong_PermissionPlans.java").exists());
+    }
+
+    @Test
+    public void constantName() throws Exception {
+        assertEquals("SYNC_CONTACTS", PermissionPlanProcessor.constantName("syncContacts"));
+        assertEquals("READ_SMS", PermissionPlanProcessor.constantName("READ_SMS"));
+        assertEquals("PERMISSION_HELPER_DEMO", PermissionPlanProcessor.constantName("PermissionHelperDemo"));
+    }
+
+    /**
+     * compiles the source and the generated code against stubs of the platform and the library
+     * @return no error
+     */
+    private boolean process(String source) throws IOException {
+        File sources = new File(directory, "src");
+        String name = source.substring(source.indexOf("class ") + 6, source.indexOf(" {"));
+        List<File> files = Arrays.asList(
+                write(new File(sources, "android/Manifest.java"), MANIFEST),
+                write(new File(sources, "android/app/Activity.java"), ACTIVITY),
+                write(new File(sources, "com/derek/permissionhelper/PermissionPlan.java"), PLAN),
+                write(new File(sources, "com/derek/permissionhelper/PermissionHelper.java"), HELPER),
+                write(new File(sources, "demo/" + name + ".java"), source));
+        File classes = new File(directory, "classes");
+        classes.mkdirs();
+
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        StandardJavaFileManager fileManager = compiler.getStandardFileManager(diagnostics, null, UTF_8);
+        List<String> options = Arrays.asList("-s", directory.getPath(), "-d", classes.getPath(),
+                "-classpath", System.getProperty("java.class.path"));
+        JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, diagnostics, options, null,
+                fileManager.getJavaFileObjectsFromFiles(files));
+        task.setProcessors(Collections.singletonList(new PermissionPlanProcessor()));
+        boolean success = task.call();
+        fileManager.close();
+        return success;
+    }
+
+    private List<String> errors() {
+        List<String> errors = new ArrayList<>();
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+            if (diagnostic.getKind() == Diagnostic.Kind.ERROR) errors.add(diagnostic.getMessage(null));
+        }
+        return errors;
+    }
+
+    private String read(String path) throws IOException {
+        return new String(Files.readAllBytes(new File(directory, path).toPath()), UTF_8);
+    }
+
+    private static File write(File file, String content) throws IOException {
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes(UTF_8));
+        return file;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) delete(child);
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,9 @@
+# Strips PermissionHelper's logging from release builds.
+# Add this file to the proguardFiles of your app's release buildType (minifyEnabled true).
+-assumenosideeffects class com.derek.permissionhelper.PermissionHelper$RLog {
+    public static void v(...);
+    public static void d(...);
+    public static void i(...);
+    public static void w(...);
+    public static void e(...);
+}
@@ -0,0 +1,33 @@
+package com.derek.permissionhelper;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * One low priority daemon thread for the package manager work we want off the UI thread
+ */
+final class BackgroundExecutor {
+    private static ExecutorService executor;
+
+    private BackgroundExecutor() {}
+
+    static void execute(Runnable runnable) {
+        getExecutor().execute(runnable);
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "PermissionHelperBackground");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+}
@@ -0,0 +1,122 @@
+package com.derek.permissionhelper;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the steps of a permission flow in a loop instead of recursing from one step into the next.
+ * A step either completes synchronously (e.g. the permission is already granted) and the loop goes on,
+ * or it suspends the flow (waiting for the system dialog / a rationale) until {@link #resume()} is called.
+ *
+ * The loop gives the thread back after {@link #frameBudgetNanos} and continues on the {@link Executor},
+ * so that a big request never blocks a whole frame. Not thread safe, drive it from one thread.
+ */
+final class FlowScheduler {
+    static final long DEFAULT_FRAME_BUDGET_NANOS = TimeUnit.MILLISECONDS.toNanos(4);
+
+    interface Step {
+        /**
+         * @return true if the step is done, false if the flow has to wait for {@link #resume()}
+         */
+        boolean run();
+    }
+
+    private final ArrayDeque<Step> steps = new ArrayDeque<>();
+    private final Executor executor;
+    private final long frameBudgetNanos;
+    private Runnable onFinished;
+
+    private boolean running = false;
+    private boolean resumed = false;
+    private boolean posted = false;
+    private boolean finished = false;
+
+    private final Runnable drainRunnable = new Runnable() {
+        @Override
+        public void run() {
+            posted = false;
+            drain();
+        }
+    };
+
+    FlowScheduler(Executor executor, long frameBudgetNanos) {
+        this.executor = executor;
+        this.frameBudgetNanos = frameBudgetNanos;
+    }
+
+    FlowScheduler() {
+        this(mainThreadExecutor(), DEFAULT_FRAME_BUDGET_NANOS);
+    }
+
+    static Executor mainThreadExecutor() {
+        final Handler handler = new Handler(Looper.getMainLooper());
+        return new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                handler.post(command);
+            }
+        };
+    }
+
+    void add(Step step) {
+        steps.add(step);
+    }
+
+    int size() {
+        return steps.size();
+    }
+
+    void setOnFinished(Runnable onFinished) {
+        this.onFinished = onFinished;
+    }
+
+    /**
+     * start the flow, or continue it after a step has been suspended
+     */
+    void resume() {
+        if (running) {
+            // the suspended step has been completed synchronously, from inside the loop
+            resumed = true;
+            return;
+        }
+        drain();
+    }
+
+    void cancel() {
+        steps.clear();
+        finished = true;
+    }
+
+    boolean isFinished() {
+        return finished;
+    }
+
+    private void drain() {
+        if (finished || posted) return;
+        running = true;
+        try {
+            final long start = System.nanoTime();
+            while (! steps.isEmpty()) {
+                resumed = false;
+                boolean done = steps.poll().run();
+                if (finished) return;
+                if (! done && ! resumed) return;
+
+                // at least one step per turn, so that the flow always makes progress
+                if (! steps.isEmpty() && System.nanoTime() - start > frameBudgetNanos) {
+                    posted = true;
+                    executor.execute(drainRunnable);
+                    return;
+                }
+            }
+            finished = true;
+        } finally {
+            running = false;
+        }
+        if (onFinished != null) onFinished.run();
+    }
+}
@@ -0,0 +1,123 @@
+package com.derek.permissionhelper;
+
+import android.content.pm.PackageManager;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Permissions currently being asked to the system, keyed by permission string.
+ * Android only shows one dialog at a time and cancels a concurrent request with empty results,
+ * so a helper which needs a permission another helper is already asking for attaches to that request
+ * instead of making its own, and gets completed from the same result.
+ */
+final class InFlightRequests {
+    private static final String TAG = InFlightRequests.class.getSimpleName();
+
+    interface Waiter {
+        void onInFlightResult(String permission, boolean granted);
+
+        /**
+         * the request won't be answered, the waiter has to ask for the permission itself
+         */
+        void onInFlightCancelled(String permission);
+    }
+
+    private static final class Pending {
+        final int requestCode;
+        List<Waiter> waiters;
+
+        Pending(int requestCode) {
+            this.requestCode = requestCode;
+        }
+    }
+
+    private static final HashMap<String, Pending> pendingMap = new HashMap<>();
+    private static final HashMap<Integer, String[]> requestMap = new HashMap<>();
+
+    private InFlightRequests() {}
+
+    static synchronized void add(int requestCode, String[] permissions) {
+        requestMap.put(requestCode, permissions);
+        for (String permission : permissions) {
+            pendingMap.put(permission, new Pending(requestCode));
+        }
+    }
+
+    /**
+     * @return false if the permission is not being asked for, the caller has to request it itself
+     */
+    static synchronized boolean attach(String permission, Waiter waiter) {
+        Pending pending = pendingMap.get(permission);
+        if (pending == null) return false;
+        if (pending.waiters == null) pending.waiters = new ArrayList<>(1);
+        pending.waiters.add(waiter);
+        PermissionHelper.RLog.d(TAG, "attached to in-flight request", pending.requestCode, "for", permission);
+        return true;
+    }
+
+    /**
+     * complete every waiter of the request, with what the system returned (denied if the request has been interrupted)
+     */
+    static void complete(int requestCode, String[] permissions, int[] grantResults) {
+        List<Waiter> waiters = new ArrayList<>(0);
+        List<String> waitingPermissions = new ArrayList<>(0);
+        remove(requestCode, waiters, waitingPermissions);
+
+        for (int i = 0; i < waiters.size(); i++) {
+            String permission = waitingPermissions.get(i);
+            waiters.get(i).onInFlightResult(permission, isGranted(permission, permissions, grantResults));
+        }
+    }
+
+    /**
+     * The request is dropped before being answered (its helper got cancelled): its permissions are not in flight
+     * anymore and its waiters are released, each one asks for the permission itself (the first one asking makes
+     * the request, the others attach to it).
+     */
+    static void cancel(int requestCode) {
+        List<Waiter> waiters = new ArrayList<>(0);
+        List<String> waitingPermissions = new ArrayList<>(0);
+        if (! remove(requestCode, waiters, waitingPermissions)) return;
+        PermissionHelper.RLog.d(TAG, "in-flight request cancelled, releasing its waiters:", requestCode);
+
+        for (int i = 0; i < waiters.size(); i++) {
+            waiters.get(i).onInFlightCancelled(waitingPermissions.get(i));
+        }
+    }
+
+    /**
+     * forget about the request, collect its waiters (and the permission each one waits for)
+     * @return false if the request wasn't in flight
+     */
+    private static synchronized boolean remove(int requestCode, List<Waiter> waiters, List<String> waitingPermissions) {
+        String[] requested = requestMap.remove(requestCode);
+        if (requested == null) return false;
+        for (String permission : requested) {
+            Pending pending = pendingMap.get(permission);
+            if (pending == null || pending.requestCode != requestCode) continue;
+            pendingMap.remove(permission);
+            if (pending.waiters == null) continue;
+            for (Waiter waiter : pending.waiters) {
+                waiters.add(waiter);
+                waitingPermissions.add(permission);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the permission is being asked for
+     */
+    static synchronized boolean isInFlight(String permission) {
+        return pendingMap.containsKey(permission);
+    }
+
+    private static boolean isGranted(String permission, String[] permissions, int[] grantResults) {
+        for (int i = 0; i < permissions.length && i < grantResults.length; i++) {
+            if (permission.equals(permissions[i])) return grantResults[i] == PackageManager.PERMISSION_GRANTED;
+        }
+        return false;
+    }
+}
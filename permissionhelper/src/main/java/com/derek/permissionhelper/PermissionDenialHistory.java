@@ -0,0 +1,164 @@
+package com.derek.permissionhelper;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Looper;
+import android.support.v4.app.ActivityCompat;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persisted outcome of the system dialog, one int per permission (number of denials in a row, removed once granted).
+ * A permission which has been denied before, is still not granted and for which the system doesn't want
+ * a rationale anymore has been denied with "don't ask again": asking for it again would only pause the activity
+ * for a dialog the system answers on its own.
+ * Read once into memory, on {@link BackgroundExecutor} when asked for on the main thread (nothing is known until then,
+ * every count is 0), written with SharedPreferences.apply() so the disk write never happens on the caller's thread.
+ */
+public final class PermissionDenialHistory {
+    private static final String TAG = PermissionDenialHistory.class.getSimpleName();
+    private static final String PREFERENCES_NAME = "com.derek.permissionhelper.denials";
+
+    private static final ConcurrentHashMap<String, Integer> denialCounts = new ConcurrentHashMap<>();
+    private static volatile SharedPreferences preferences;
+    private static boolean loading;
+    // answers recorded before the load finished, merged into what is on disk: permission -> granted since
+    private static final HashMap<String, Boolean> unloadedRecords = new HashMap<>();
+    private static boolean clearedBeforeLoad;
+
+    private PermissionDenialHistory() {}
+
+    /**
+     * load the history if it hasn't been yet: right away off the main thread ({@link PermissionPreflight} does it
+     * from its background thread), on the main thread the load is only started and the history is empty until it is done
+     */
+    static void load(Context context) {
+        if (preferences != null) return;
+        final Context applicationContext = context.getApplicationContext();
+        if (Looper.myLooper() != Looper.getMainLooper()) {
+            loadNow(applicationContext);
+            return;
+        }
+        synchronized (PermissionDenialHistory.class) {
+            if (loading) return;
+            loading = true;
+        }
+        BackgroundExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                loadNow(applicationContext);
+            }
+        });
+    }
+
+    private static void loadNow(Context applicationContext) {
+        if (preferences != null) return;
+        // the disk read, outside of the lock record() takes on the main thread
+        SharedPreferences sharedPreferences = applicationContext.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+        Map<String, ?> stored = sharedPreferences.getAll();
+        synchronized (PermissionDenialHistory.class) {
+            if (preferences != null) return;
+            SharedPreferences.Editor editor = sharedPreferences.edit();
+            if (clearedBeforeLoad) {
+                editor.clear();
+            } else {
+                for (Map.Entry<String, ?> entry : stored.entrySet()) {
+                    if (! (entry.getValue() instanceof Integer)) continue;
+                    Boolean grantedSince = unloadedRecords.get(entry.getKey());
+                    if (grantedSince == null) {
+                        denialCounts.put(entry.getKey(), (Integer) entry.getValue());
+                    } else if (! grantedSince) {
+                        // denied again before the load, on top of the denials on disk
+                        denialCounts.put(entry.getKey(), denialCounts.get(entry.getKey()) + (Integer) entry.getValue());
+                    }
+                }
+            }
+            for (String permission : unloadedRecords.keySet()) {
+                Integer count = denialCounts.get(permission);
+                if (count != null) {
+                    editor.putInt(permission, count);
+                } else {
+                    editor.remove(permission);
+                }
+            }
+            editor.apply();
+            unloadedRecords.clear();
+            clearedBeforeLoad = false;
+            preferences = sharedPreferences;
+            loading = false;
+            PermissionHelper.RLog.d(TAG, "loaded", denialCounts.size(), "denied permissions");
+        }
+    }
+
+    /**
+     * @return number of times in a row the permission has been denied from the system dialog,
+     * 0 while the history is being loaded
+     */
+    public static int getDenialCount(Context context, String permission) {
+        load(context);
+        Integer count = denialCounts.get(permission);
+        return count != null ? count : 0;
+    }
+
+    /**
+     * @return true if the permission is not granted and the system won't show its dialog anymore
+     */
+    public static boolean isDeniedForever(Activity activity, String permission) {
+        if (getDenialCount(activity, permission) == 0 || PermissionHelper.hasPermission(activity, permission)) return false;
+        PermissionMetrics.onPackageManagerCall();
+        return ! ActivityCompat.shouldShowRequestPermissionRationale(activity, permission);
+    }
+
+    /**
+     * record what the user answered in the system dialog
+     */
+    static synchronized void record(String permission, boolean granted) {
+        SharedPreferences sharedPreferences = preferences;
+        if (sharedPreferences == null) {
+            // merged with the history on disk once it is loaded
+            Boolean grantedSince = unloadedRecords.get(permission);
+            unloadedRecords.put(permission, granted || (grantedSince != null && grantedSince));
+        }
+        if (granted) {
+            if (denialCounts.remove(permission) == null) return;
+            if (sharedPreferences != null) sharedPreferences.edit().remove(permission).apply();
+        } else {
+            Integer count = denialCounts.get(permission);
+            int newCount = count != null ? count + 1 : 1;
+            denialCounts.put(permission, newCount);
+            if (sharedPreferences != null) sharedPreferences.edit().putInt(permission, newCount).apply();
+        }
+    }
+
+    /**
+     * the permission has been found granted (e.g. from the settings screen), its denials don't count anymore
+     */
+    static void onGranted(String permission) {
+        if (denialCounts.containsKey(permission) || preferences == null) record(permission, true);
+    }
+
+    // for tests: back to nothing loaded
+    static synchronized void reset() {
+        denialCounts.clear();
+        preferences = null;
+        loading = false;
+        unloadedRecords.clear();
+        clearedBeforeLoad = false;
+    }
+
+    public static void clear(Context context) {
+        load(context);
+        synchronized (PermissionDenialHistory.class) {
+            denialCounts.clear();
+            if (preferences != null) {
+                preferences.edit().clear().apply();
+            } else {
+                unloadedRecords.clear();
+                clearedBeforeLoad = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.derek.permissionhelper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Completable handle on the outcome of a permission flow, see
+ * {@link PermissionHelper#checkRequestPermissionAsync(android.app.Activity, PermissionHelper.Permissions...)}.
+ * A worker thread can block on {@link #get(long, TimeUnit)} until the user has answered, anyone can
+ * {@link #addListener(Listener, Executor) listen} on an executor of their choice or {@link #then(Function, Executor) chain}
+ * some work onto it. Cancelling it cancels the flow.
+ */
+public final class PermissionFuture<V> implements Future<V> {
+    public interface Listener<V> {
+        /**
+         * @param future done, {@link #get()} doesn't block
+         */
+        void onComplete(PermissionFuture<V> future);
+    }
+
+    public interface Function<V, R> {
+        R apply(V value) throws Exception;
+    }
+
+    private final CountDownLatch latch = new CountDownLatch(1);
+    private final Object lock = new Object();
+    private boolean done;
+    private boolean cancelled;
+    private V value;
+    private Throwable failure;
+    private List<Runnable> listeners;
+    // stops whatever produces the value, run once if cancelled
+    private volatile Runnable onCancel;
+
+    PermissionFuture() {}
+
+    void setOnCancel(Runnable onCancel) {
+        this.onCancel = onCancel;
+    }
+
+    boolean complete(V value) {
+        return finish(value, null, false);
+    }
+
+    boolean completeExceptionally(Throwable failure) {
+        return finish(null, failure, false);
+    }
+
+    private boolean finish(V value, Throwable failure, boolean cancelled) {
+        List<Runnable> toRun;
+        synchronized (lock) {
+            if (done) return false;
+            this.done = true;
+            this.value = value;
+            this.failure = failure;
+            this.cancelled = cancelled;
+            toRun = listeners;
+            listeners = null;
+        }
+        latch.countDown();
+        if (toRun != null) {
+            for (Runnable listener : toRun) {
+                listener.run();
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        if (! finish(null, null, true)) return false;
+        Runnable onCancel = this.onCancel;
+        this.onCancel = null;
+        if (onCancel != null) onCancel.run();
+        return true;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        synchronized (lock) {
+            return cancelled;
+        }
+    }
+
+    @Override
+    public boolean isDone() {
+        synchronized (lock) {
+            return done;
+        }
+    }
+
+    @Override
+    public V get() throws InterruptedException, ExecutionException {
+        latch.await();
+        return getDone();
+    }
+
+    @Override
+    public V get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (! latch.await(timeout, unit)) throw new TimeoutException("No answer after " + timeout + " " + unit);
+        return getDone();
+    }
+
+    private V getDone() throws ExecutionException {
+        synchronized (lock) {
+            if (cancelled) throw new CancellationException();
+            if (failure != null) throw new ExecutionException(failure);
+            return value;
+        }
+    }
+
+    /**
+     * @param executor the listener runs on it, right away if the future is already done
+     */
+    public PermissionFuture<V> addListener(final Listener<V> listener, final Executor executor) {
+        Runnable runnable = new Runnable() {
+            @Override
+            public void run() {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onComplete(PermissionFuture.this);
+                    }
+                });
+            }
+        };
+        synchronized (lock) {
+            if (! done) {
+                if (listeners == null) listeners = new ArrayList<>(1);
+                listeners.add(runnable);
+                return this;
+            }
+        }
+        runnable.run();
+        return this;
+    }
+
+    /**
+     * @return future of the function applied to the value of this one (on the executor),
+     * failed / cancelled if this one is; cancelling it cancels this one
+     */
+    public <R> PermissionFuture<R> then(final Function<V, R> function, Executor executor) {
+        final PermissionFuture<R> next = new PermissionFuture<>();
+        next.setOnCancel(new Runnable() {
+            @Override
+            public void run() {
+                cancel(false);
+            }
+        });
+        addListener(new Listener<V>() {
+            @Override
+            public void onComplete(PermissionFuture<V> future) {
+                try {
+                    next.complete(function.apply(future.getDone()));
+                } catch (CancellationException e) {
+                    next.finish(null, null, true);
+                } catch (ExecutionException e) {
+                    next.completeExceptionally(e.getCause());
+                } catch (Exception e) {
+                    next.completeExceptionally(e);
+                }
+            }
+        }, executor);
+        return next;
+    }
+}
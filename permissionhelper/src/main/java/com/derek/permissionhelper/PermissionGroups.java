@@ -0,0 +1,47 @@
+package com.derek.permissionhelper;
+
+import android.content.pm.PackageManager;
+import android.content.pm.PermissionInfo;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process-wide cache of {@link PermissionInfo#group}, filled from {@link PermissionPreflight} when it has run
+ */
+final class PermissionGroups {
+    // what PermissionInfo.group is from API 29 on, for every permission: it's no group to ask together
+    static final String UNDEFINED = "android.permission-group.UNDEFINED";
+    // cached for the permissions without a group, never returned
+    private static final String NO_GROUP = "";
+    private static final ConcurrentHashMap<String, String> groups = new ConcurrentHashMap<>();
+
+    private PermissionGroups() {}
+
+    /**
+     * @return platform group of the permission, null if it has none / is unknown
+     */
+    static String get(PackageManager packageManager, String permission) {
+        String group = groups.get(permission);
+        if (group == null) {
+            PermissionPreflight.Entry entry = PermissionPreflight.get(permission);
+            if (entry != null) {
+                group = entry.group;
+            } else {
+                try {
+                    PermissionMetrics.onPackageManagerCall();
+                    group = packageManager.getPermissionInfo(permission, 0).group;
+                } catch (PackageManager.NameNotFoundException e) {
+                    group = null;
+                }
+            }
+            if (group == null || group.isEmpty() || UNDEFINED.equals(group)) group = NO_GROUP;
+            groups.put(permission, group);
+        }
+        return NO_GROUP.equals(group) ? null : group;
+    }
+
+    // for tests
+    static void clear() {
+        groups.clear();
+    }
+}
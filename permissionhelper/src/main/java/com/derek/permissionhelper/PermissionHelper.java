@@ -4,81 +4,145 @@ import android.app.Activity;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
+import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
-import android.content.pm.PermissionInfo;
 import android.net.Uri;
+import android.os.Build;
 import android.provider.Settings;
+import android.support.annotation.CheckResult;
 import android.support.annotation.NonNull;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.content.ContextCompat;
+import android.support.v4.util.LruCache;
 import android.support.v4.util.SimpleArrayMap;
 import android.support.v7.app.AlertDialog;
 import android.util.Log;
 
-import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.Executor;
 
 /**
  * Created by derek on 2/12/15.
  */
 public class PermissionHelper implements ActivityCompat.OnRequestPermissionsResultCallback{
     private static final String TAG = PermissionHelper.class.getSimpleName();
-    private static final AtomicInteger sNextGeneratedRequestCode = new AtomicInteger(1);
 
-    private RequestPermissionsActivity requestPermissionsActivity;
-    private Permissions[] rootPermissionGroup;
+    private PermissionPlan plan;
+    private PermissionResult result;
+    private BitSet requested; // indexed by plan, asked already in this flow, never ask twice
     private SimpleArrayMap<Integer, Boolean> resultReturned = new SimpleArrayMap<>();
-    private SimpleArrayMap<Integer, Permissions> permissionsList;
+    private SimpleArrayMap<Integer, String[]> permissionsList;
+    private int awaitingCount = 0; // permissions this helper waits for on requests of other helpers
     private SimpleArrayMap<String, Boolean> resultList; // used to record all the permission status
 
-    private List<Runnable> pendingList;
+    private FlowScheduler pendingList;
 
     private PermissionCallBack permissionCallBack;
     private PermissionShowRationalCallBack permissionShowRationalCallBack;
     private PermissionResultCallBack permissionResultCallBack;
+    private PermissionDeniedForeverCallBack permissionDeniedForeverCallBack;
+    private PermissionDeltaCallBack permissionDeltaCallBack;
+    // answered / changed since the last delta
+    private BitSet changed;
 
-    private WeakReference<PermissionHelper> self;
+    private int registryId;
+    // request code of the app settings screen while the flow waits for the user to come back from it, 0 otherwise
+    private int settingsRequestCode;
+    private Context applicationContext;
+    // the activity the flow runs in, replaced by the new one on a configuration change (see PermissionHelperFragment)
+    private Activity hostActivity;
+    private PermissionHelperFragment host;
+    // entry whose rationale is being shown, -1 if none
+    private int rationaleEntry = -1;
+    // order of this flow's system dialogs among the other helpers', see PermissionRequestQueue
+    private int priority = PermissionRequestQueue.PRIORITY_USER_INITIATED;
+    // for PermissionMetrics
+    private long flowStartNanos;
+    // completed with the result when the flow finishes, see checkRequestPermissionAsync
+    private PermissionFuture<PermissionSnapshot> future;
+    private int rationalesShown;
+    private int roundTrips;
+    // package manager IPCs made for this flow, see PermissionMetrics.countFlowCalls
+    private final int[] packageManagerCalls = new int[1];
+    private boolean batchRequest = false;
+    private boolean finished; // the final result has been delivered, never twice
+    private boolean completed; // only set on COMPLETED
 
+    /**
+     * Definition of a permission (or a group of them) to ask for, immutable:
+     * build them once (e.g. as static constants) and share them between helpers / threads.
+     * The grant state of a request lives in its {@link PermissionResult}.
+     * The results of the plain factories are interned in a bounded pool, definitions built from runtime strings
+     * (package manager labels, modifiers) are not, so that the pool can't grow with them.
+     */
     public static final class Permissions {
-        private boolean isGroup = false;
-        private boolean shouldShowRational = false;
-        private Permissions[] permissionGroup;
+        private static final int INTERN_POOL_SIZE = 128;
+        private static final LruCache<Permissions, Permissions> internPool = new LruCache<>(INTERN_POOL_SIZE);
 
-        private String permissionStr;
-        private boolean critical = true;
-        private String rationaleTitle, rationaleMessage;
-        private boolean granted = false;
+        final boolean isGroup;
+        final boolean shouldShowRational;
+        final Permissions[] permissionGroup;
 
-        public Permissions(){}
-        public Permissions(String permissionStr, boolean critical, String rationaleTitle, String rationaleMessage) {
+        final String permissionStr;
+        final boolean critical;
+        final String rationaleTitle, rationaleMessage;
+        private final int hashCode;
+
+        private Permissions(boolean isGroup, boolean shouldShowRational, Permissions[] permissionGroup,
+                            String permissionStr, boolean critical, String rationaleTitle, String rationaleMessage) {
+            this.isGroup = isGroup;
+            this.shouldShowRational = shouldShowRational;
+            this.permissionGroup = permissionGroup;
             this.permissionStr = permissionStr;
             this.critical = critical;
             this.rationaleTitle = rationaleTitle;
             this.rationaleMessage = rationaleMessage;
-            this.shouldShowRational = true;
+            int hash = (isGroup ? 1 : 0) | (shouldShowRational ? 2 : 0) | (critical ? 4 : 0);
+            hash = 31 * hash + Arrays.hashCode(permissionGroup);
+            hash = 31 * hash + (permissionStr != null ? permissionStr.hashCode() : 0);
+            hash = 31 * hash + (rationaleTitle != null ? rationaleTitle.hashCode() : 0);
+            this.hashCode = 31 * hash + (rationaleMessage != null ? rationaleMessage.hashCode() : 0);
+        }
+        public Permissions(String permissionStr, boolean critical, String rationaleTitle, String rationaleMessage) {
+            this(false, true, null, permissionStr, critical, rationaleTitle, rationaleMessage);
         }
         public Permissions(String permissionStr, boolean critical) {
-            this.permissionStr = permissionStr;
-            this.critical = critical;
+            this(false, false, null, permissionStr, critical, null, null);
         }
+        /* the following return a modified copy, this one is left as it is */
+        @CheckResult
         public Permissions showRational(boolean show) {
-            this.shouldShowRational = show;
-            return this;
+            return new Permissions(isGroup, show, permissionGroup, permissionStr, critical, rationaleTitle, rationaleMessage);
         }
+        @CheckResult
         public Permissions critical(boolean critical) {
-            this.critical = critical;
-            return this;
+            return new Permissions(isGroup, shouldShowRational, permissionGroup, permissionStr, critical, rationaleTitle, rationaleMessage);
         }
+        @CheckResult
         public Permissions title(String rationaleTitle) {
-            this.rationaleTitle = rationaleTitle;
-            return this;
+            return new Permissions(isGroup, shouldShowRational, permissionGroup, permissionStr, critical, rationaleTitle, rationaleMessage);
         }
+        @CheckResult
         public Permissions message(String rationaleMessage) {
-            this.rationaleMessage = rationaleMessage;
-            return this;
+            return new Permissions(isGroup, shouldShowRational, permissionGroup, permissionStr, critical, rationaleTitle, rationaleMessage);
+        }
+
+        /**
+         * @return the canonical instance equal to this one, as long as it's among the {@link #INTERN_POOL_SIZE}
+         * most recently interned definitions
+         */
+        public Permissions intern() {
+            synchronized (internPool) {
+                Permissions interned = internPool.get(this);
+                if (interned != null) return interned;
+                internPool.put(this, this);
+                return this;
+            }
         }
 
         public String getRationaleTitle() {
@@ -105,55 +169,68 @@ public class PermissionHelper implements ActivityCompat.OnRequestPermissionsResu
                     "Permission:" + permissionStr;
         }
 
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (! (o instanceof Permissions)) return false;
+            Permissions that = (Permissions) o;
+            return hashCode == that.hashCode
+                    && isGroup == that.isGroup
+                    && shouldShowRational == that.shouldShowRational
+                    && critical == that.critical
+                    && Arrays.equals(permissionGroup, that.permissionGroup)
+                    && equals(permissionStr, that.permissionStr)
+                    && equals(rationaleTitle, that.rationaleTitle)
+                    && equals(rationaleMessage, that.rationaleMessage);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        private static boolean equals(String a, String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+
         /**
          * group of permissions share the same title and message
          * @param permissions
          * @return
          */
         public static Permissions newPermissionGroup(Permissions... permissions) {
-            Permissions permission = new Permissions();
-            permission.permissionGroup = permissions;
-            permission.isGroup = true;
-            return permission;
+            return new Permissions(true, false, permissions.clone(), null, true, null, null).intern();
         }
         public static Permissions newPermissionGroup(String rationaleTitle, String rationaleMessage, Permissions... permissions) {
-            Permissions permission = new Permissions();
-            permission.permissionGroup = permissions;
-            permission.rationaleTitle = rationaleTitle;
-            permission.rationaleMessage = rationaleMessage;
-            permission.shouldShowRational = true;
-            permission.isGroup = true;
-            return permission;
+            return new Permissions(true, true, permissions.clone(), null, true, rationaleTitle, rationaleMessage).intern();
         }
         public static Permissions newSubPermissions(String permissionStr, boolean critical) {
-            Permissions permission = new Permissions(permissionStr, critical);
-            return permission;
+            return new Permissions(permissionStr, critical).intern();
         }
         public static Permissions newPermissions(String permissionStr, boolean critical, String rationaleTitle, String rationaleMessage) {
-            Permissions permission = new Permissions();
-            permission.shouldShowRational = true;
-            permission.permissionStr = permissionStr;
-            permission.critical = critical;
-            permission.rationaleTitle = rationaleTitle;
-            permission.rationaleMessage = rationaleMessage;
-            return permission;
+            return new Permissions(permissionStr, critical, rationaleTitle, rationaleMessage).intern();
         }
 
         public static Permissions newPermissions(String permissionStr, String rationaleTitle, String rationaleMessage) {
             return newPermissions(permissionStr, true, rationaleTitle, rationaleMessage);
         }
+        /**
+         * not interned, the title is built at runtime
+         */
         public static Permissions newPermissions(String permissionStr, boolean critical, String rationaleMessage, PackageManager packageManager) {
-            return newPermissions(permissionStr, critical, "Permission required:" + getPermissionLabel(permissionStr, packageManager), rationaleMessage);
+            return new Permissions(permissionStr, critical, "Permission required:" + getPermissionLabel(permissionStr, packageManager), rationaleMessage);
         }
-        public boolean isSatisfied() {
+        /**
+         * @return every critical permission of this definition is granted in the result
+         */
+        public boolean isSatisfied(PermissionResult result) {
             if (isGroup) {
-                boolean satisfied = true;
                 for (Permissions permissions : permissionGroup) {
-                    satisfied &= permissions.isSatisfied();
+                    if (! permissions.isSatisfied(result)) return false;
                 }
-                return satisfied;
+                return true;
             } else {
-                return granted || !critical;
+                return ! critical || result.isGranted(permissionStr);
             }
         }
     }
@@ -162,24 +239,26 @@ public class PermissionHelper implements ActivityCompat.OnRequestPermissionsResu
         this.permissionShowRationalCallBack = permissionShowRationalCallBackInternal;
     }
 
-    private synchronized boolean checkRequestIndividualPermissionInternal(final Activity activity, final Permissions individualPermission){
-        final String permissionStr = individualPermission.permissionStr;
+    private boolean checkRequestIndividualPermissionInternal(final Activity activity, final int entry){
+        int[] previous = PermissionMetrics.countFlowCalls(packageManagerCalls);
+        try {
+            final Permissions individualPermission = plan.getEntry(entry);
 
-        if (! hasPermission(activity, individualPermission)){
-            RLog.d(TAG, "Permission", individualPermission.toString(), "is not granted yet");
-            if (individualPermission.shouldShowRational && shouldShowRequestPermissionRationale(activity, individualPermission)) {
-                showRational(activity, individualPermission);
+            if (! hasPermission(activity, entry)){
+                RLog.d(TAG, "Permission", individualPermission, "is not granted yet");
+                if (individualPermission.shouldShowRational && shouldShowRequestPermissionRationale(activity, entry)) {
+                    showRational(activity, entry);
+                } else {
+                    RLog.d(TAG, "No need to Show explanation for Permission (or can't)", individualPermission);
+                    return requestPermission(activity, entry) < 0 && settingsRequestCode == 0;
+                }
+                return false;
             } else {
-                RLog.d(TAG, "No need to Show explanation for Permission (or can't)", permissionStr);
-                requestPermission(activity, individualPermission);
-
+                RLog.d(TAG, "Permission", individualPermission, "is already granted (or already asked)");
+                return true;
             }
-            return false;
-        } else {
-            RLog.d(TAG, "Permission", permissionStr, "is already granted");
-            resultList.put(permissionStr, true);
-            executePendingList();
-            return true;
+        } finally {
+            PermissionMetrics.countFlowCalls(previous);
         }
     }
 
@@ -188,87 +267,308 @@ public class PermissionHelper implements ActivityCompat.OnRequestPermissionsResu
      * ask for a number of permissions (have to be wrapped in the form of @{Permission[]}
      * @param activity
      * @param permissionCallBack
-     * @param permissions
+     * @param plan
      */
-    private PermissionHelper checkRequestPermissionInternal(final Activity activity, final PermissionCallBack permissionCallBack, final Permissions... permissions) {
-        if (! (activity instanceof RequestPermissionsActivity)) {
-            RLog.e(TAG, "ERROR: Activity must implement RequestPermissionsActivity interface");
-            return null;
-        }
-        this.requestPermissionsActivity = SC.ast(activity, RequestPermissionsActivity.class);
-        requestPermissionsActivity.registerOnRequestPermissionsResultCallback(this);
+    private PermissionHelper checkRequestPermissionInternal(final Activity activity, final PermissionCallBack permissionCallBack, final PermissionPlan plan) {
+        hostActivity = activity;
+        host = PermissionHelperFragment.get(activity);
+        host.add(this);
 
-        permissionsList = new SimpleArrayMap<>(permissions.length);
-        pendingList = new ArrayList<>(permissions.length);
-        resultList = new SimpleArrayMap<>();
+        this.plan = plan;
+        result = new PermissionResult(plan);
+        requested = new BitSet(plan.size());
+        changed = new BitSet(plan.size());
+        permissionsList = new SimpleArrayMap<>(plan.entryCount());
+        pendingList = schedulerExecutor != null ?
+                new FlowScheduler(schedulerExecutor, FlowScheduler.DEFAULT_FRAME_BUDGET_NANOS) :
+                new FlowScheduler();
+        pendingList.setOnFinished(new Runnable() {
+            @Override
+            public void run() {
+                finish();
+            }
+        });
+        resultList = new SimpleArrayMap<>(plan.size());
 
-        this.rootPermissionGroup = permissions;
         this.permissionCallBack = permissionCallBack;
 
-        for (int i = 0; i < permissions.length; i++){
-            final int index  = i;
-            pendingList.add(new Runnable() {
-                @Override
-                public void run() {
-                    checkRequestIndividualPermissionInternal(activity, permissions[index]);
-                }
-            });
+        if (batchRequest) {
+            queueBatchedRequest(activity);
+        } else {
+            for (int i = 0; i < plan.entryCount(); i++){
+                final int entry  = i;
+                pendingList.add(new FlowScheduler.Step() {
+                    @Override
+                    public boolean run() {
+                        return checkRequestIndividualPermissionInternal(hostActivity, entry);
+                    }
+                });
+            }
         }
-        executePendingList();
+        pendingList.resume();
         return this;
     }
 
+    /**
+     * Batched mode: every entry that needs no rationale goes into one single request (one request code),
+     * entries with a rationale to show are still asked one at a time after that.
+     * @param activity
+     */
+    private void queueBatchedRequest(final Activity activity) {
+        int[] previous = PermissionMetrics.countFlowCalls(packageManagerCalls);
+        try {
+            int[] batch = new int[plan.entryCount()];
+            int batchSize = 0;
+            final List<FlowScheduler.Step> rationalList = new ArrayList<>();
+            for (int i = 0; i < plan.entryCount(); i++) {
+                final int entry = i;
+                if (hasPermission(activity, entry)) {
+                    RLog.d(TAG, "Permission", plan.getEntry(entry), "is already granted");
+                } else if (plan.getEntry(entry).shouldShowRational && shouldShowRequestPermissionRationale(activity, entry)) {
+                    rationalList.add(new FlowScheduler.Step() {
+                        @Override
+                        public boolean run() {
+                            return checkRequestIndividualPermissionInternal(hostActivity, entry);
+                        }
+                    });
+                } else {
+                    batch[batchSize++] = entry;
+                }
+            }
+            if (batchSize > 0) {
+                final int[] batchEntries = Arrays.copyOf(batch, batchSize);
+                pendingList.add(new FlowScheduler.Step() {
+                    @Override
+                    public boolean run() {
+                        RLog.d(TAG, "Batch requesting", batchEntries.length, "entries in one go");
+                        return requestPermission(hostActivity, batchEntries) < 0 && settingsRequestCode == 0;
+                    }
+                });
+            }
+            for (FlowScheduler.Step step : rationalList) {
+                pendingList.add(step);
+            }
+        } finally {
+            PermissionMetrics.countFlowCalls(previous);
+        }
+    }
+
+    /**
+     * only there for compatibility, legacy hosts implementing {@link RequestPermissionsActivity} get one single
+     * forwarder to {@link PermissionResultDispatcher} (see {@link PermissionHelperFragment}), not one per helper
+     */
     @Override
     public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
-        RLog.d(TAG, "onRequestPermissionsResult has been called, request code:", requestCode);
+        PermissionResultDispatcher.dispatch(requestCode, permissions, grantResults);
+    }
 
-        resultReturned.put(requestCode, true);
-        Permissions permission = permissionsList.remove(requestCode);
-        if (permission == null) {
-            RLog.e(TAG, "Unable to get permission, which should never happen");
-        } else {
-            parseResult(permission, permissions, grantResults);
+    private final ActivityCompat.OnRequestPermissionsResultCallback resultCallback = new ActivityCompat.OnRequestPermissionsResultCallback() {
+        @Override
+        public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
+            RLog.d(TAG, "onRequestPermissionsResult has been called, request code:", requestCode);
+
+            if (permissionsList == null || permissionsList.remove(requestCode) == null) {
+                RLog.e(TAG, "Unable to get permission, which should never happen");
+                return;
+            }
+            resultReturned.put(requestCode, true);
+            roundTrips++;
+            parseResult(permissions, grantResults);
+            flushChanges();
+            if (awaitingCount == 0) executePendingList();
         }
-        executePendingList();
+    };
 
+    /**
+     * the activity has been recreated (configuration change), go on with the flow in the new one:
+     * results, pending steps and outstanding request codes are kept, the system delivers the outstanding
+     * results to the new activity. Only a rationale dialog goes away with the old activity, it is shown again.
+     */
+    void reattach(Activity activity) {
+        if (hostActivity == activity || plan == null) return;
+        RLog.d(TAG, "reattaching to", activity);
+        hostActivity = activity;
+        if (rationaleEntry >= 0) showRational(activity, rationaleEntry);
     }
+
+    private final PermissionRequestQueue.Requester platformRequester = new PermissionRequestQueue.Requester() {
+        @Override
+        public boolean request(int requestCode, String[] permissions) {
+            if (hostActivity == null) return false;
+            ActivityCompat.requestPermissions(hostActivity, permissions, requestCode);
+            return true;
+        }
+    };
+
+    private final ActivityCompat.OnRequestPermissionsResultCallback settingsCallback = new ActivityCompat.OnRequestPermissionsResultCallback() {
+        @Override
+        public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
+            RLog.d(TAG, "back from the app settings, request code:", requestCode);
+            settingsRequestCode = 0;
+            // anything cached while the user was away (e.g. a background check) predates the changes made there
+            PermissionStatusCache.invalidate();
+            recheckDenied(applicationContext);
+            flushChanges();
+            if (pendingList.isFinished()) {
+                finish();
+            } else if (permissionsList.isEmpty() && awaitingCount == 0) {
+                executePendingList();
+            }
+        }
+    };
+
+    private final InFlightRequests.Waiter inFlightWaiter = new InFlightRequests.Waiter() {
+        @Override
+        public void onInFlightResult(String permission, boolean permissionGranted) {
+            if (plan == null) return; // cancelled
+
+            RLog.d(TAG, "in-flight result of", permission, "granted?", permissionGranted);
+            setResult(plan.indexOf(permission), permissionGranted);
+            flushChanges();
+            if (--awaitingCount == 0 && permissionsList.isEmpty()) executePendingList();
+        }
+
+        @Override
+        public void onInFlightCancelled(String permission) {
+            if (plan == null) return; // cancelled
+
+            RLog.d(TAG, "in-flight request of", permission, "cancelled, requesting it ourselves");
+            int index = plan.indexOf(permission);
+            awaitingCount--;
+            requested.clear(index);
+            BitSet toRequest = new BitSet(plan.size());
+            toRequest.set(index);
+            requestPermission(hostActivity, toRequest);
+            // nothing left to wait for (e.g. denied forever)
+            if (awaitingCount == 0 && permissionsList.isEmpty()) executePendingList();
+        }
+    };
     public PermissionHelper setPermissionShowRationalCallBack (PermissionShowRationalCallBack permissionShowRationalCallBack) {
+        if (completed) return this; // nothing left to show
         this.permissionShowRationalCallBack = permissionShowRationalCallBack;
         return this;
     }
+    /**
+     * @return grant state of this request, filled in as results come back, empty (and satisfied) on {@link #COMPLETED}
+     */
+    public PermissionResult getResult() {
+        return completed ? COMPLETED_RESULT : result;
+    }
+    /**
+     * @return this is {@link #COMPLETED}: everything was granted up front and no flow runs
+     */
+    public boolean isCompleted() {
+        return completed;
+    }
+    public PermissionHelper setPermissionCallBack(PermissionCallBack callBack) {
+        if (completed) {
+            if (callBack != null) callBack.onSuccess();
+            return this;
+        }
+        this.permissionCallBack = callBack;
+        return this;
+    }
     public PermissionHelper setPermissionResultCallBack(PermissionResultCallBack callBack) {
+        if (completed) {
+            if (callBack != null) callBack.onFinalResult(new SimpleArrayMap<String, Boolean>(0));
+            return this;
+        }
         this.permissionResultCallBack = callBack;
         return this;
     }
-    private void showRational(final Activity activity, final Permissions individualPermission) {
-        RLog.d(TAG, "Showing explanation for Permission", individualPermission.toString());
-        final String rationaleTitle = individualPermission.getRationaleTitle(activity.getApplicationContext());
-        final String rationaleMessage = individualPermission.getRationaleMessage(activity.getApplicationContext());
+    /**
+     * Lighter alternative to {@link PermissionResultCallBack}: one call per system result (or batch of checks),
+     * with an immutable snapshot and only the permissions which changed
+     */
+    public PermissionHelper setPermissionDeltaCallBack(PermissionDeltaCallBack callBack) {
+        if (completed) {
+            if (callBack != null) callBack.onChange(COMPLETED_RESULT.snapshot(), COMPLETED_RESULT.getPlan().getPermissions());
+            return this;
+        }
+        this.permissionDeltaCallBack = callBack;
+        return this;
+    }
+    /**
+     * called instead of asking for permissions the user has denied with "don't ask again",
+     * the place to point to {@link #openAppSettingAndResume(Activity)}
+     */
+    public PermissionHelper setPermissionDeniedForeverCallBack(PermissionDeniedForeverCallBack callBack) {
+        if (completed) return this; // nothing denied
+        this.permissionDeniedForeverCallBack = callBack;
+        return this;
+    }
+    private void showRational(final Activity activity, final int entry) {
+        final Permissions individualPermission = plan.getEntry(entry);
+        RLog.d(TAG, "Showing explanation for Permission", individualPermission);
+        final String rationaleTitle;
+        final String rationaleMessage;
+        // label loads
+        int[] previous = PermissionMetrics.countFlowCalls(packageManagerCalls);
+        try {
+            rationaleTitle = individualPermission.getRationaleTitle(activity.getApplicationContext());
+            rationaleMessage = individualPermission.getRationaleMessage(activity.getApplicationContext());
+        } finally {
+            PermissionMetrics.countFlowCalls(previous);
+        }
 
+        rationaleEntry = entry;
+        rationalesShown++;
+        PermissionMetrics.onRationaleShown();
         permissionShowRationalCallBack.onShowRational(activity, rationaleTitle, rationaleMessage, new PostShowRationalCallBack() {
             @Override
             public void requestPermission(boolean requestPermission) {
-                if (requestPermission) PermissionHelper.this.requestPermission(activity, individualPermission);
+                if (rationaleEntry != entry || plan == null) return; // answered already, or cancelled
+                rationaleEntry = -1;
+                if (! requestPermission) {
+                    declineRationale(entry);
+                    executePendingList();
+                } else if (PermissionHelper.this.requestPermission(hostActivity, entry) < 0) {
+                    executePendingList();
+                }
             }
         });
     }
+    /**
+     * the user said no to the rationale: the permissions of the entry are not asked, they are denied for this flow
+     */
+    private void declineRationale(int entry) {
+        RLog.d(TAG, "rationale declined for", plan.getEntry(entry));
+        for (int index : plan.getEntryIndices(entry)) {
+            if (result.granted.get(index) || requested.get(index)) continue;
+            requested.set(index);
+            setResult(index, false);
+        }
+        flushChanges();
+    }
+    /**
+     * the suspended step is done (result returned / nothing to ask), go on with the rest of the flow
+     */
     private void executePendingList(){
         if (permissionResultCallBack != null) permissionResultCallBack.onUpdate(this.resultList);
-        if (pendingList.size() >= 1) {
-            pendingList.remove(0).run();
-        } else {
-            finish();
-        }
+        // the return from the settings screen resumes the flow
+        if (settingsRequestCode != 0) return;
+        pendingList.resume();
     }
     private void finish(){
-        requestPermissionsActivity.removeOnRequestPermissionsResultCallback(this);
-        if (permissionResultCallBack != null) permissionResultCallBack.onFinalResult(this.resultList);
-        if (checkCriticalPermissionSatisfied(this.rootPermissionGroup)) {
-            onSuccess();
+        flushChanges();
+        if (finished) {
+            // back from the settings screen after the end of the flow, the changes are only an update
+            if (permissionResultCallBack != null) permissionResultCallBack.onUpdate(this.resultList);
         } else {
-            onFail();
+            finished = true;
+            PermissionMetrics.onFlowFinished(flowStartNanos, result.isSatisfied(), rationalesShown, roundTrips, packageManagerCalls[0]);
+            if (future != null) future.complete(result.snapshot());
+            if (permissionResultCallBack != null) permissionResultCallBack.onFinalResult(this.resultList);
+            if (result.isSatisfied()) {
+                onSuccess();
+            } else {
+                onFail();
+            }
         }
-        permissionHelpers.remove(self);
+        PermissionHelperRegistry.unregister(registryId);
+        if (host != null) host.remove(this);
+        host = null;
+        hostActivity = null;
     }
     private void onSuccess(){
         RLog.v(TAG, "Succeed");
@@ -281,136 +581,568 @@ public class PermissionHelper implements ActivityCompat.OnRequestPermissionsResu
     }
 
     public void cancel() {
+        if (completed) return;
+        SimpleArrayMap<Integer, String[]> outstanding = permissionsList;
+        if (outstanding != null) {
+            for (int i = 0; i < outstanding.size(); i++) {
+                PermissionResultDispatcher.unregister(outstanding.keyAt(i));
+                // other helpers may be waiting on our requests, they ask for themselves now
+                PermissionRequestQueue.cancel(outstanding.keyAt(i));
+            }
+        }
+        if (settingsRequestCode != 0) PermissionResultDispatcher.unregister(settingsRequestCode);
+        settingsRequestCode = 0;
+        applicationContext = null;
         permissionCallBack = null;
         permissionShowRationalCallBack = null;
         permissionResultCallBack = null;
+        permissionDeniedForeverCallBack = null;
+        permissionDeltaCallBack = null;
 
-        requestPermissionsActivity = null;
-        rootPermissionGroup = null;
+        if (host != null) host.remove(this);
+        host = null;
+        hostActivity = null;
+        plan = null;
+        result = null;
+        requested = null;
+        changed = null;
         resultReturned = null;
         permissionsList = null;
         resultList = null;
 
+        if (pendingList != null) pendingList.cancel();
         pendingList = null;
 
-        self = null;
-        requestPermissionsActivity = null;
+        PermissionFuture<PermissionSnapshot> future = this.future;
+        this.future = null;
+        if (future != null) future.cancel(false);
+
+        PermissionHelperRegistry.unregister(registryId);
     }
 
     /* Launcher */
-    public static List<WeakReference<PermissionHelper>> permissionHelpers;
+    // drives the pending list, main thread Handler if null
+    static Executor schedulerExecutor;
+
+    // package manager IPCs of the fast path, only used on the main thread
+    private static final int[] fastPathCalls = new int[1];
+    private static final PermissionResult COMPLETED_RESULT = grantedResult(PermissionPlan.compile());
+
+    /**
+     * Returned by the factories when everything was granted up front: no flow runs and nothing is allocated for it.
+     * Shared by all these requests, it doesn't keep their permissions: the callback given to checkRequestPermission
+     * has been called already, the ones set on it are called right away with an empty result, the others are ignored.
+     */
+    public static final PermissionHelper COMPLETED = newCompleted();
 
     public static PermissionHelper checkRequestPermission(Activity activity, PermissionCallBack permissionCallBack, final Permissions... permissions){
-        RLog.d(TAG, "checkRequestPermission");
-        if (permissionHelpers == null) permissionHelpers = new ArrayList<>();
+        return checkRequestPermission(activity, PermissionRequestQueue.PRIORITY_USER_INITIATED, permissionCallBack, permissions);
+    }
+
+    /**
+     * @param priority {@link PermissionRequestQueue#PRIORITY_USER_INITIATED} or {@link PermissionRequestQueue#PRIORITY_BACKGROUND},
+     *                 decides which system dialog comes first when several helpers are asking at the same time
+     */
+    public static PermissionHelper checkRequestPermission(Activity activity, int priority, PermissionCallBack permissionCallBack, final Permissions... permissions){
+        RLog.d(TAG, "checkRequestPermission, priority", priority);
+        long startNanos = System.nanoTime();
+        if (isAllGranted(activity, startNanos, permissionCallBack, permissions)) return COMPLETED;
+        PermissionHelper helper = newHelper(startNanos, priority, false);
+        helper.checkRequestPermissionInternal(activity, permissionCallBack, PermissionPlan.compile(permissions));
+        return helper;
+    }
+
+    /**
+     * Same as {@link #checkRequestPermission(Activity, PermissionCallBack, Permissions...)} with a plan compiled once,
+     * e.g. one of the static plans generated from the {@code @PermissionRequest} annotations: nothing is built per call
+     */
+    public static PermissionHelper checkRequestPermission(Activity activity, PermissionCallBack permissionCallBack, PermissionPlan plan){
+        return checkRequestPermission(activity, PermissionRequestQueue.PRIORITY_USER_INITIATED, permissionCallBack, plan);
+    }
+
+    public static PermissionHelper checkRequestPermission(Activity activity, int priority, PermissionCallBack permissionCallBack, PermissionPlan plan){
+        RLog.d(TAG, "checkRequestPermission, precompiled plan, priority", priority);
+        long startNanos = System.nanoTime();
+        if (isAllGranted(activity, startNanos, permissionCallBack, plan)) return COMPLETED;
+        PermissionHelper helper = newHelper(startNanos, priority, false);
+        helper.checkRequestPermissionInternal(activity, permissionCallBack, plan);
+        return helper;
+    }
+
+    /**
+     * Same as {@link #checkRequestPermission(Activity, PermissionCallBack, Permissions...)}, but all the entries
+     * which don't need a rationale are asked in one single system dialog round-trip
+     */
+    public static PermissionHelper checkRequestPermissionBatched(Activity activity, PermissionCallBack permissionCallBack, final Permissions... permissions){
+        RLog.d(TAG, "checkRequestPermissionBatched");
+        long startNanos = System.nanoTime();
+        if (isAllGranted(activity, startNanos, permissionCallBack, permissions)) return COMPLETED;
+        PermissionHelper helper = newHelper(startNanos, PermissionRequestQueue.PRIORITY_USER_INITIATED, true);
+        helper.checkRequestPermissionInternal(activity, permissionCallBack, PermissionPlan.compile(permissions));
+        return helper;
+    }
+
+    public static PermissionHelper checkRequestPermissionBatched(Activity activity, PermissionCallBack permissionCallBack, PermissionPlan plan){
+        RLog.d(TAG, "checkRequestPermissionBatched, precompiled plan");
+        long startNanos = System.nanoTime();
+        if (isAllGranted(activity, startNanos, permissionCallBack, plan)) return COMPLETED;
+        PermissionHelper helper = newHelper(startNanos, PermissionRequestQueue.PRIORITY_USER_INITIATED, true);
+        helper.checkRequestPermissionInternal(activity, permissionCallBack, plan);
+        return helper;
+    }
+
+    /**
+     * Same flow as {@link #checkRequestPermission(Activity, PermissionCallBack, Permissions...)}, for the code which would
+     * rather wait for the outcome than be called back: background workers can block on the future until the user
+     * has answered, with no polling. Has to be called on the main thread, the future can be used from any.
+     * @return completed with the result when the flow finishes, cancelling it cancels the flow
+     */
+    public static PermissionFuture<PermissionSnapshot> checkRequestPermissionAsync(Activity activity, final Permissions... permissions){
+        final PermissionFuture<PermissionSnapshot> future = new PermissionFuture<>();
+        final PermissionHelper helper = checkRequestPermission(activity, null, permissions);
+        if (helper == COMPLETED) {
+            future.complete(grantedResult(PermissionPlan.compile(permissions)).snapshot());
+            return future;
+        }
+        if (helper.plan == null) {
+            future.cancel(false);
+            return future;
+        }
+        if (helper.pendingList.isFinished()) {
+            // everything got answered without the user (e.g. denied forever)
+            future.complete(helper.result.snapshot());
+            return future;
+        }
+        helper.future = future;
+        future.setOnCancel(new Runnable() {
+            @Override
+            public void run() {
+                FlowScheduler.mainThreadExecutor().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (helper.future == future) helper.cancel();
+                    }
+                });
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Fast path for the usual case (returning user): one pass over the definitions, no flow, no listener,
+     * onSuccess is called right away
+     */
+    private static boolean isAllGranted(Context context, long startNanos, PermissionCallBack permissionCallBack, Permissions... permissions){
+        fastPathCalls[0] = 0;
+        int[] previous = PermissionMetrics.countFlowCalls(fastPathCalls);
+        try {
+            for (Permissions permission : permissions) {
+                if (! hasPermission(context, permission)) return false;
+            }
+        } finally {
+            PermissionMetrics.countFlowCalls(previous);
+        }
+        return onAllGranted(startNanos, permissionCallBack);
+    }
+
+    private static boolean isAllGranted(Context context, long startNanos, PermissionCallBack permissionCallBack, PermissionPlan plan){
+        fastPathCalls[0] = 0;
+        int[] previous = PermissionMetrics.countFlowCalls(fastPathCalls);
+        try {
+            for (int i = 0; i < plan.entryCount(); i++) {
+                if (! hasPermission(context, plan.getEntry(i))) return false;
+            }
+        } finally {
+            PermissionMetrics.countFlowCalls(previous);
+        }
+        return onAllGranted(startNanos, permissionCallBack);
+    }
+
+    private static boolean onAllGranted(long startNanos, PermissionCallBack permissionCallBack){
+        RLog.d(TAG, "Everything is already granted");
+        PermissionMetrics.onFlowFinished(startNanos, true, 0, 0, fastPathCalls[0]);
+        if (permissionCallBack != null) permissionCallBack.onSuccess();
+        return true;
+    }
+
+    /**
+     * a flow has to run: only now the helper is created (and the definitions compiled by the caller)
+     */
+    private static PermissionHelper newHelper(long startNanos, int priority, boolean batchRequest){
+        PermissionHelper helper = new PermissionHelper();
+        helper.flowStartNanos = startNanos;
+        helper.packageManagerCalls[0] = fastPathCalls[0]; // the checks of the fast path
+        helper.priority = priority;
+        helper.batchRequest = batchRequest;
+        helper.registryId = PermissionHelperRegistry.register(helper);
+        return helper;
+    }
+
+    private static PermissionHelper newCompleted(){
         PermissionHelper helper = new PermissionHelper();
-        helper.checkRequestPermissionInternal(activity, permissionCallBack, permissions);
-        helper.self = new WeakReference<>(helper);
-        permissionHelpers.add(helper.self);
+        helper.completed = true;
+        helper.permissionShowRationalCallBack = null;
         return helper;
     }
 
+    private static PermissionResult grantedResult(PermissionPlan plan){
+        PermissionResult result = new PermissionResult(plan);
+        result.granted.set(0, plan.size());
+        result.answered.set(0, plan.size());
+        return result;
+    }
+
+    /**
+     * Helpers still running for the activity, e.g. the ones started before a configuration change,
+     * so that the recreated activity can set its callbacks on them again
+     */
+    public static List<PermissionHelper> getRunningHelpers(Activity activity){
+        List<PermissionHelper> helpers = PermissionHelperFragment.find(activity);
+        return helpers != null ? helpers : Collections.<PermissionHelper>emptyList();
+    }
+
     // DON'T USE THIS
     @Deprecated
     public static void cancelAll(){
         RLog.i(TAG, "on cancel, clear everything");
-        if (permissionHelpers == null) return;
-        for (WeakReference<PermissionHelper> weakReference : permissionHelpers) {
-            PermissionHelper helper = weakReference.get();
-            if (helper != null) helper.cancel();
+        for (PermissionHelper helper : PermissionHelperRegistry.getLiveHelpers()) {
+            helper.cancel();
         }
     }
 
     /* Helper */
-    private synchronized int requestPermission(Activity activity, Permissions permission){
-        int requestCode = getNewRequestCode();
-        RLog.d(TAG, "requesting permission:", permission.toString(), "with requestCode:", requestCode);
-        ActivityCompat.requestPermissions(activity,
-                getPermissionStr(permission),
-                requestCode);
-        resultReturned.put(requestCode, false);
-        permissionsList.put(requestCode, permission);/**/
-        return requestCode;
-    }
-    private void parseResult(Permissions permission, @NonNull String[] permissions, @NonNull int[] grantResults){
-        if (permission.isGroup) {
-            for (Permissions sub : permission.permissionGroup) {
-                parseResult(sub, permissions, grantResults);
+    /**
+     * request every permission of the entries which is neither granted nor asked already in this flow,
+     * the ones another helper is asking for right now are not requested again, we wait for that result
+     * @return request code, 0 if only waiting for other helpers' requests, -1 if there was nothing left to ask for
+     */
+    private int requestPermission(Activity activity, int... entries){
+        BitSet toRequest = new BitSet(plan.size());
+        for (int entry : entries) {
+            for (int index : plan.getEntryIndices(entry)) {
+                if (! result.granted.get(index) && ! requested.get(index)) toRequest.set(index);
             }
-        } else {
-            for (int i = 0; i < permissions.length; i++) {
-                String permissionStr = permissions[i];
-                if (permissionStr.equals(permission.permissionStr)) {
-                    permission.granted = grantResults.length > i && grantResults[i] == PackageManager.PERMISSION_GRANTED;
-                    resultList.put(permissionStr, permission.granted);
-                    if (permissionResultCallBack != null) permissionResultCallBack.onUpdate(this.resultList);
-                    RLog.i(TAG, "Permission", permission.permissionStr, "granted? ---=== >>>", permission.granted);
-                    break;
+        }
+        return requestPermission(activity, toRequest);
+    }
+    /**
+     * @param toRequest indexed by plan, neither granted nor asked already in this flow
+     */
+    private int requestPermission(Activity activity, BitSet toRequest){
+        int[] previous = PermissionMetrics.countFlowCalls(packageManagerCalls);
+        try {
+            if (toRequest.isEmpty()) {
+                RLog.d(TAG, "nothing left to request");
+                return -1;
+            }
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) addSamePlatformGroup(activity, toRequest);
+            requested.or(toRequest);
+            skipDeniedForever(activity, toRequest);
+            if (toRequest.isEmpty()) return -1;
+            for (int index = toRequest.nextSetBit(0); index >= 0; index = toRequest.nextSetBit(index + 1)) {
+                if (InFlightRequests.attach(plan.getPermission(index), inFlightWaiter)) {
+                    toRequest.clear(index);
+                    awaitingCount++;
                 }
             }
+            if (toRequest.isEmpty()) return 0;
+            String[] permissionStrs = getPermissionStr(toRequest);
+
+            int requestCode = PermissionResultDispatcher.register(resultCallback);
+            RLog.d(TAG, "requesting permission:", permissionStrs, "with requestCode:", requestCode);
+            resultReturned.put(requestCode, false);
+            permissionsList.put(requestCode, permissionStrs);
+            InFlightRequests.add(requestCode, permissionStrs);
+            flushChanges();
+            // started once no other helper's dialog is showing
+            PermissionRequestQueue.enqueue(priority, requestCode, permissionStrs, platformRequester);
+            return requestCode;
+        } finally {
+            PermissionMetrics.countFlowCalls(previous);
         }
     }
-    private static boolean checkCriticalPermissionSatisfied(Permissions... permissionGroup) {
-        boolean satisfied = true;
-        for (Permissions permissions : permissionGroup) {
-            satisfied &= permissions.isSatisfied();
+    /**
+     * The system asks for a whole platform group in one dialog, so rather than another round-trip later,
+     * pull in the permissions of the other entries which are in the same platform group as the ones about
+     * to be requested. Entries with a rationale are left alone, their rationale has to come first.
+     */
+    private void addSamePlatformGroup(Context context, BitSet toRequest){
+        PackageManager packageManager = context.getPackageManager();
+        HashSet<String> groups = new HashSet<>();
+        for (int index = toRequest.nextSetBit(0); index >= 0; index = toRequest.nextSetBit(index + 1)) {
+            String group = PermissionGroups.get(packageManager, plan.getPermission(index));
+            if (group != null) groups.add(group);
         }
-        return satisfied;
-    }
-    private static String[] getPermissionStr(Permissions permission){
-        String[] strings;
-        if (permission.isGroup) {
-            int length = permission.permissionGroup.length;
-            strings = new String[length];
-            for (int i = 0; i < length; i++) {
-                strings[i] = permission.permissionGroup[i].permissionStr;
+        if (groups.isEmpty()) return;
+
+        for (int entry = 0; entry < plan.entryCount(); entry++) {
+            if (plan.getEntry(entry).shouldShowRational) continue;
+            for (int index : plan.getEntryIndices(entry)) {
+                if (toRequest.get(index) || result.granted.get(index) || requested.get(index)) continue;
+                String permissionStr = plan.getPermission(index);
+                if (! groups.contains(PermissionGroups.get(packageManager, permissionStr))) continue;
+
+                if (hasPermission(context, permissionStr)) {
+                    markGranted(index);
+                } else {
+                    RLog.d(TAG, "same platform group, asking now:", permissionStr);
+                    toRequest.set(index);
+                }
             }
-        } else {
-            strings = new String[] {permission.permissionStr};
         }
-        return strings;
     }
-    private static int getNewRequestCode(){
-        for (;;) {
-            final int result = sNextGeneratedRequestCode.get();
-            int newValue = result + 1;
-            if (newValue > 0x00FFFFFF) newValue = 1; // Roll over to 1, not 0.
-            if (sNextGeneratedRequestCode.compareAndSet(result, newValue)) {
-                return result;
+    /**
+     * take the permissions denied with "don't ask again" out of the request, the system would deny them
+     * without showing anything, they are denied right away instead
+     */
+    private void skipDeniedForever(Activity activity, BitSet toRequest){
+        BitSet deniedForever = null;
+        for (int index = toRequest.nextSetBit(0); index >= 0; index = toRequest.nextSetBit(index + 1)) {
+            // only the history is read for the usual case, the rationale check is an IPC
+            if (PermissionDenialHistory.getDenialCount(activity, plan.getPermission(index)) == 0) continue;
+            if (! PermissionDenialHistory.isDeniedForever(activity, plan.getPermission(index))) continue;
+            if (deniedForever == null) deniedForever = new BitSet(plan.size());
+            deniedForever.set(index);
+        }
+        if (deniedForever == null) return;
+
+        toRequest.andNot(deniedForever);
+        for (int index = deniedForever.nextSetBit(0); index >= 0; index = deniedForever.nextSetBit(index + 1)) {
+            setResult(index, false);
+        }
+        flushChanges();
+        String[] permissionStrs = getPermissionStr(deniedForever);
+        RLog.d(TAG, "denied forever, not requesting:", permissionStrs);
+        if (permissionDeniedForeverCallBack != null) permissionDeniedForeverCallBack.onDeniedForever(activity, permissionStrs);
+    }
+    // package-private for the benchmarks
+    void parseResult(@NonNull String[] permissions, @NonNull int[] grantResults){
+        for (int i = 0; i < permissions.length; i++) {
+            String permissionStr = permissions[i];
+            int index = plan.indexOf(permissionStr);
+            if (index < 0) continue;
+
+            boolean permissionGranted = grantResults.length > i && grantResults[i] == PackageManager.PERMISSION_GRANTED;
+            if (grantResults.length > i) {
+                PermissionStatusCache.put(permissionStr, permissionGranted);
+                PermissionDenialHistory.record(permissionStr, permissionGranted);
+                PermissionMetrics.onPermissionResult(permissionStr, permissionGranted);
             }
+            setResult(index, permissionGranted);
         }
     }
+    private void setResult(int index, boolean permissionGranted){
+        String permissionStr = plan.getPermission(index);
+        if (! result.answered.get(index) || result.granted.get(index) != permissionGranted) changed.set(index);
+        result.answered.set(index);
+        result.granted.set(index, permissionGranted);
+        resultList.put(permissionStr, permissionGranted);
+        PermissionObserver.onResult(permissionStr, permissionGranted);
+        if (permissionResultCallBack != null) permissionResultCallBack.onUpdate(this.resultList);
+        RLog.i(TAG, "Permission", permissionStr, "granted? ---=== >>>", permissionGranted);
+    }
+    /**
+     * found granted without asking, reported with the next delta
+     */
+    private void markGranted(int index){
+        result.granted.set(index);
+        result.answered.set(index);
+        changed.set(index);
+        resultList.put(plan.getPermission(index), true);
+    }
+    /**
+     * one delta for everything which changed since the last one
+     */
+    private void flushChanges(){
+        if (changed.isEmpty()) return;
+        if (permissionDeltaCallBack == null) {
+            changed.clear();
+            return;
+        }
+        String[] changedStrs = getPermissionStr(changed);
+        changed.clear();
+        permissionDeltaCallBack.onChange(result.snapshot(), changedStrs);
+    }
+    // package-private for the benchmarks
+    String[] getPermissionStr(BitSet indices){
+        String[] strings = new String[indices.cardinality()];
+        for (int index = indices.nextSetBit(0), i = 0; index >= 0; index = indices.nextSetBit(index + 1)) {
+            strings[i++] = plan.getPermission(index);
+        }
+        return strings;
+    }
     public static void openAppSetting(Activity activity) {
+        // whatever the user does in there is not reported back to us
+        PermissionStatusCache.invalidate();
+        activity.startActivityForResult(newAppSettingIntent(activity), 0);
+    }
+
+    /**
+     * Open the app settings screen as a step of this flow: the flow waits for the user to come back,
+     * then only the permissions denied so far are checked again and the flow goes on from where it stopped
+     * (or, if it had finished, reports the changes through the update and delta callbacks: the final result
+     * and onSuccess / onFail are only ever called once per flow).
+     * Needs Activity.onActivityResult to call {@link PermissionResultDispatcher#dispatchActivityResult(int)}.
+     */
+    public void openAppSettingAndResume(Activity activity) {
+        if (completed || plan == null) {
+            openAppSetting(activity);
+            return;
+        }
+        if (settingsRequestCode != 0) return;
+
+        PermissionStatusCache.invalidate();
+        applicationContext = activity.getApplicationContext();
+        settingsRequestCode = PermissionResultDispatcher.registerActivityResult(settingsCallback);
+        // finished flows have left the registry, it is running again until the user is back
+        if (pendingList.isFinished()) {
+            registryId = PermissionHelperRegistry.register(this);
+            hostActivity = activity;
+            host = PermissionHelperFragment.get(activity);
+            host.add(this);
+        }
+        RLog.d(TAG, "opening the app settings with request code", settingsRequestCode);
+        activity.startActivityForResult(newAppSettingIntent(activity), settingsRequestCode);
+    }
+
+    private static Intent newAppSettingIntent(Activity activity) {
         Intent intent = new Intent(Settings.ACTION_APPLICATION_DETAILS_SETTINGS);
         Uri uri = Uri.fromParts("package", activity.getPackageName(), null);
         intent.setData(uri);
-        activity.startActivityForResult(intent, 0);
+        return intent;
     }
 
+    /**
+     * one bulk check of the permissions denied so far in this flow, the ones granted meanwhile are updated
+     */
+    private void recheckDenied(Context context) {
+        int[] previous = PermissionMetrics.countFlowCalls(packageManagerCalls);
+        try {
+            BitSet denied = new BitSet(plan.size());
+            for (int i = 0; i < resultList.size(); i++) {
+                if (! resultList.valueAt(i)) denied.set(plan.indexOf(resultList.keyAt(i)));
+            }
+            if (denied.isEmpty()) return;
+
+            String[] deniedStrs = getPermissionStr(denied);
+            BitSet granted = getGrantedPermissions(context, deniedStrs);
+            for (int index = denied.nextSetBit(0), i = 0; index >= 0; index = denied.nextSetBit(index + 1), i++) {
+                if (! granted.get(i)) continue;
+                PermissionDenialHistory.onGranted(deniedStrs[i]);
+                setResult(index, true);
+            }
+        } finally {
+            PermissionMetrics.countFlowCalls(previous);
+        }
+    }
+
+    /**
+     * backed by {@link PermissionStatusCache}, call {@link PermissionStatusCache#invalidate()} from Activity.onRestart
+     */
     public static boolean hasPermission(Context context, String permission) {
-        return ContextCompat.checkSelfPermission(context, permission) == PackageManager.PERMISSION_GRANTED;
+        Boolean cached = PermissionStatusCache.get(permission);
+        if (cached != null) return cached;
+
+        int generation = PermissionStatusCache.generation();
+        PermissionMetrics.onPackageManagerCall();
+        boolean granted = ContextCompat.checkSelfPermission(context, permission) == PackageManager.PERMISSION_GRANTED;
+        PermissionStatusCache.put(permission, granted, generation);
+        if (granted) PermissionDenialHistory.onGranted(permission);
+        return granted;
         //return PackageManager.PERMISSION_GRANTED == pkgmanager.checkPermission(permissionStr, packageName);
     }
-    private static boolean hasPermission(Context context, Permissions permission) {
-        if (permission.isGroup) {
-            boolean granted = true;
-            for (Permissions permissions : permission.permissionGroup) {
-                granted &= hasPermission(context, permissions);
+    /**
+     * Bulk check, safe to call from any thread.
+     * Answered from {@link PermissionStatusCache} if it knows every permission, otherwise from one single
+     * package snapshot (getPackageInfo with GET_PERMISSIONS) instead of one IPC per permission.
+     * @return bit i is set if permissions[i] is granted
+     */
+    public static BitSet getGrantedPermissions(Context context, String... permissions) {
+        BitSet granted = new BitSet(permissions.length);
+        boolean allCached = true;
+        for (int i = 0; i < permissions.length && allCached; i++) {
+            Boolean cached = PermissionStatusCache.get(permissions[i]);
+            if (cached == null) {
+                allCached = false;
+            } else {
+                granted.set(i, cached);
+            }
+        }
+        if (allCached) return granted;
+
+        int generation = PermissionStatusCache.generation();
+        PackageInfo packageInfo = null;
+        try {
+            PermissionMetrics.onPackageManagerCall();
+            packageInfo = context.getPackageManager().getPackageInfo(context.getPackageName(), PackageManager.GET_PERMISSIONS);
+        } catch (PackageManager.NameNotFoundException e) {
+            e.printStackTrace();
+        }
+        if (packageInfo == null || packageInfo.requestedPermissions == null || packageInfo.requestedPermissionsFlags == null) {
+            // nothing declared in the manifest (or no snapshot), one by one then
+            for (int i = 0; i < permissions.length; i++) {
+                granted.set(i, hasPermission(context, permissions[i]));
             }
             return granted;
-        } else {
-            return permission.granted = hasPermission(context, permission.permissionStr);
         }
+
+        HashSet<String> grantedSet = new HashSet<>(packageInfo.requestedPermissions.length);
+        for (int i = 0; i < packageInfo.requestedPermissions.length; i++) {
+            if ((packageInfo.requestedPermissionsFlags[i] & PackageInfo.REQUESTED_PERMISSION_GRANTED) != 0) {
+                grantedSet.add(packageInfo.requestedPermissions[i]);
+            }
+        }
+        for (int i = 0; i < permissions.length; i++) {
+            // not declared in the manifest can't be granted
+            boolean permissionGranted = grantedSet.contains(permissions[i]);
+            granted.set(i, permissionGranted);
+            PermissionStatusCache.put(permissions[i], permissionGranted, generation);
+        }
+        return granted;
+    }
+    /**
+     * @return bit i is set if permission i of the plan is granted
+     */
+    public static BitSet getGrantedPermissions(Context context, PermissionPlan plan) {
+        return getGrantedPermissions(context, plan.getPermissions());
+    }
+
+    /**
+     * @return every permission of the definition is granted, walks the definition without allocating
+     */
+    public static boolean hasPermission(Context context, Permissions permission) {
+        if (permission.isGroup) {
+            for (Permissions sub : permission.permissionGroup) {
+                if (! hasPermission(context, sub)) return false;
+            }
+            return true;
+        }
+        return hasPermission(context, permission.permissionStr);
     }
-    private static boolean shouldShowRequestPermissionRationale(Activity activity, Permissions permissions){
-        if (permissions.isGroup) {
-            for (Permissions permission : permissions.permissionGroup) {
-                if (shouldShowRequestPermissionRationale(activity, permission)) return true;
+    /**
+     * check every permission of the entry which hasn't been answered yet in this flow
+     * @return false if some of them still have to be requested
+     */
+    private boolean hasPermission(Context context, int entry) {
+        boolean allGranted = true;
+        for (int index : plan.getEntryIndices(entry)) {
+            if (result.granted.get(index) || requested.get(index)) continue;
+            String permissionStr = plan.getPermission(index);
+            if (hasPermission(context, permissionStr)) {
+                markGranted(index);
+            } else {
+                allGranted = false;
             }
-            return false;
-        } else {
-            return ActivityCompat.shouldShowRequestPermissionRationale(activity, permissions.permissionStr);
         }
+        return allGranted;
+    }
+    private boolean shouldShowRequestPermissionRationale(Activity activity, int entry){
+        for (int index : plan.getEntryIndices(entry)) {
+            if (result.granted.get(index) || requested.get(index)) continue;
+            PermissionMetrics.onPackageManagerCall();
+            if (ActivityCompat.shouldShowRequestPermissionRationale(activity, plan.getPermission(index))) return true;
+        }
+        return false;
     }
 
     public final PermissionShowRationalCallBack permissionShowRationalCallBackInternal = new PermissionShowRationalCallBack() {
@@ -426,7 +1158,12 @@ public class PermissionHelper implements ActivityCompat.OnRequestPermissionsResu
                     })
                     .setNegativeButton(android.R.string.no, new DialogInterface.OnClickListener() {
                         public void onClick(DialogInterface dialog, int which) {
-
+                            postShowRationalCallBack.requestPermission(false);
+                        }
+                    })
+                    .setOnCancelListener(new DialogInterface.OnCancelListener() {
+                        public void onCancel(DialogInterface dialog) {
+                            postShowRationalCallBack.requestPermission(false);
                         }
                     })
                     .setIcon(android.R.drawable.btn_dialog)
@@ -435,28 +1172,26 @@ public class PermissionHelper implements ActivityCompat.OnRequestPermissionsResu
     };
 
     /**
-     * Returns permissions' name (human-readable label) by permissionStr key
+     * Returns permissions' name (human-readable label) by permissionStr key, cached per locale
      */
     public static CharSequence getPermissionLabel(String permission, PackageManager packageManager) {
-        try {
-            PermissionInfo permissionInfo = packageManager.getPermissionInfo(permission, 0);
-            return permissionInfo.loadLabel(packageManager);
-        } catch (PackageManager.NameNotFoundException e) {
-            e.printStackTrace();
-        }
-        return permission;
-        //return null;
+        return PermissionLabelCache.get(permission, packageManager).label;
     }
 
 
     public static CharSequence getPermissionDescription(String permission, PackageManager packageManager) {
-        try {
-            PermissionInfo permissionInfo = packageManager.getPermissionInfo(permission, 0);
-            return permissionInfo.loadDescription(packageManager);
-        } catch (PackageManager.NameNotFoundException e) {
-            e.printStackTrace();
-        }
-        return null;
+        return PermissionLabelCache.get(permission, packageManager).description;
+    }
+
+    /**
+     * load label & description of the permissions on a background thread, so that the rationale dialog
+     * doesn't have to hit the package manager on the UI thread
+     */
+    public static void prefetchPermissionLabels(Context context, String... permissions) {
+        PermissionLabelCache.prefetch(context.getApplicationContext().getPackageManager(), permissions);
+    }
+    public static void prefetchPermissionLabels(Context context, Permissions... permissions) {
+        prefetchPermissionLabels(context, PermissionPlan.compile(permissions).getPermissions());
     }
 
     /* Interfaces */
@@ -465,6 +1200,11 @@ public class PermissionHelper implements ActivityCompat.OnRequestPermissionsResu
         void onFinalResult(SimpleArrayMap result);
 
     }
+    /**
+     * @deprecated call {@link PermissionResultDispatcher#dispatch(int, String[], int[])} from
+     * Activity.onRequestPermissionsResult instead of keeping a list of callbacks
+     */
+    @Deprecated
     public interface RequestPermissionsActivity {
         void onRequestPermissionsResult(int requestCode, String[] permissions, int[] grantResults);
         void registerOnRequestPermissionsResultCallback(ActivityCompat.OnRequestPermissionsResultCallback callback);
@@ -474,8 +1214,21 @@ public class PermissionHelper implements ActivityCompat.OnRequestPermissionsResu
         void onShowRational(final Activity activity, final String rationaleTitle, final String rationaleMessage, final PostShowRationalCallBack postShowRationalCallBack);
     }
     public interface PostShowRationalCallBack {
+        /**
+         * has to be called once the user has answered the rationale
+         * @param requestPermission false if the user declined, the permissions are denied without being asked
+         */
         void requestPermission(boolean requestPermission);
     }
+    public interface PermissionDeltaCallBack {
+        /**
+         * @param changed permissions answered / changed since the previous call, their state is in the snapshot
+         */
+        void onChange(PermissionSnapshot snapshot, String[] changed);
+    }
+    public interface PermissionDeniedForeverCallBack {
+        void onDeniedForever(Activity activity, String[] permissions);
+    }
     public interface PermissionCallBack {
         void onSuccess();
         void onFail();
@@ -489,32 +1242,235 @@ public class PermissionHelper implements ActivityCompat.OnRequestPermissionsResu
 
         StringBuilder stringBuilder = new StringBuilder();
 
-        String message = "";
-
         for(Object object : objects){
-            if(object != null) {
-                stringBuilder.append(object.toString());
-            }else {
-                stringBuilder.append("[null]");
-            }
-
+            appendObject(stringBuilder, object);
             stringBuilder.append(" ");
         }
 
         return stringBuilder.toString();
     }
+    private static StringBuilder appendObject(StringBuilder stringBuilder, Object object){
+        if (object == null) {
+            return stringBuilder.append("[null]");
+        } else if (object instanceof Object[]) {
+            return stringBuilder.append(Arrays.toString((Object[]) object));
+        } else {
+            return stringBuilder.append(object.toString());
+        }
+    }
+
+    /**
+     * Logging of the library, the level is checked before anything is built, and the fixed arity overloads
+     * don't allocate a varargs array / box primitives, so a filtered out call costs nothing.
+     * {@code RLog.setLevel(RLog.NONE)} turns it off, to strip the calls from release builds altogether
+     * add {@code rlog-proguard-rules.pro} to the proguardFiles of the app.
+     */
     public static class RLog{
-        public static void d (String tag, Object... objects){
-            Log.d(tag, combineObjectsToString(objects));
+        public static final int VERBOSE = Log.VERBOSE;
+        public static final int DEBUG = Log.DEBUG;
+        public static final int INFO = Log.INFO;
+        public static final int WARN = Log.WARN;
+        public static final int ERROR = Log.ERROR;
+        public static final int NONE = Integer.MAX_VALUE;
+
+        public interface Sink {
+            void log(int priority, String tag, String message);
+        }
+        public static final Sink LOGCAT = new Sink() {
+            @Override
+            public void log(int priority, String tag, String message) {
+                Log.println(priority, tag, message);
+            }
+        };
+
+        private static volatile int level = VERBOSE;
+        private static volatile Sink sink = LOGCAT;
+
+        public static void setLevel(int level) {
+            RLog.level = level;
+        }
+        public static void setSink(Sink sink) {
+            RLog.sink = sink != null ? sink : LOGCAT;
+        }
+        public static boolean isLoggable(int priority) {
+            return priority >= level;
+        }
+
+        private static StringBuilder append(String m1, Object o1) {
+            return appendObject(new StringBuilder(m1).append(' '), o1);
+        }
+        private static StringBuilder append(StringBuilder stringBuilder, Object o1) {
+            return appendObject(stringBuilder.append(' '), o1);
+        }
+
+        public static void v(String tag, String m1) {
+            if (isLoggable(VERBOSE)) sink.log(VERBOSE, tag, m1);
+        }
+        public static void v(String tag, String m1, Object o1) {
+            if (isLoggable(VERBOSE)) sink.log(VERBOSE, tag, append(m1, o1).toString());
+        }
+        public static void v(String tag, String m1, int i1) {
+            if (isLoggable(VERBOSE)) sink.log(VERBOSE, tag, new StringBuilder(m1).append(' ').append(i1).toString());
+        }
+        public static void v(String tag, String m1, boolean b1) {
+            if (isLoggable(VERBOSE)) sink.log(VERBOSE, tag, new StringBuilder(m1).append(' ').append(b1).toString());
+        }
+        public static void v(String tag, String m1, Object o1, String m2) {
+            if (isLoggable(VERBOSE)) sink.log(VERBOSE, tag, append(m1, o1).append(' ').append(m2).toString());
+        }
+        public static void v(String tag, String m1, Object o1, String m2, Object o2) {
+            if (isLoggable(VERBOSE)) sink.log(VERBOSE, tag, append(append(m1, o1).append(' ').append(m2), o2).toString());
+        }
+        public static void v(String tag, String m1, Object o1, String m2, int i2) {
+            if (isLoggable(VERBOSE)) sink.log(VERBOSE, tag, append(m1, o1).append(' ').append(m2).append(' ').append(i2).toString());
+        }
+        public static void v(String tag, String m1, Object o1, String m2, boolean b2) {
+            if (isLoggable(VERBOSE)) sink.log(VERBOSE, tag, append(m1, o1).append(' ').append(m2).append(' ').append(b2).toString());
+        }
+        public static void v(String tag, String m1, int i1, String m2) {
+            if (isLoggable(VERBOSE)) sink.log(VERBOSE, tag, new StringBuilder(m1).append(' ').append(i1).append(' ').append(m2).toString());
+        }
+        public static void v(String tag, String m1, int i1, String m2, Object o2) {
+            if (isLoggable(VERBOSE)) sink.log(VERBOSE, tag, append(new StringBuilder(m1).append(' ').append(i1).append(' ').append(m2), o2).toString());
+        }
+        public static void v(String tag, Object... objects) {
+            if (isLoggable(VERBOSE)) sink.log(VERBOSE, tag, combineObjectsToString(objects));
+        }
+
+        public static void d(String tag, String m1) {
+            if (isLoggable(DEBUG)) sink.log(DEBUG, tag, m1);
+        }
+        public static void d(String tag, String m1, Object o1) {
+            if (isLoggable(DEBUG)) sink.log(DEBUG, tag, append(m1, o1).toString());
+        }
+        public static void d(String tag, String m1, int i1) {
+            if (isLoggable(DEBUG)) sink.log(DEBUG, tag, new StringBuilder(m1).append(' ').append(i1).toString());
+        }
+        public static void d(String tag, String m1, boolean b1) {
+            if (isLoggable(DEBUG)) sink.log(DEBUG, tag, new StringBuilder(m1).append(' ').append(b1).toString());
+        }
+        public static void d(String tag, String m1, Object o1, String m2) {
+            if (isLoggable(DEBUG)) sink.log(DEBUG, tag, append(m1, o1).append(' ').append(m2).toString());
+        }
+        public static void d(String tag, String m1, Object o1, String m2, Object o2) {
+            if (isLoggable(DEBUG)) sink.log(DEBUG, tag, append(append(m1, o1).append(' ').append(m2), o2).toString());
+        }
+        public static void d(String tag, String m1, Object o1, String m2, int i2) {
+            if (isLoggable(DEBUG)) sink.log(DEBUG, tag, append(m1, o1).append(' ').append(m2).append(' ').append(i2).toString());
+        }
+        public static void d(String tag, String m1, Object o1, String m2, boolean b2) {
+            if (isLoggable(DEBUG)) sink.log(DEBUG, tag, append(m1, o1).append(' ').append(m2).append(' ').append(b2).toString());
+        }
+        public static void d(String tag, String m1, int i1, String m2) {
+            if (isLoggable(DEBUG)) sink.log(DEBUG, tag, new StringBuilder(m1).append(' ').append(i1).append(' ').append(m2).toString());
+        }
+        public static void d(String tag, String m1, int i1, String m2, Object o2) {
+            if (isLoggable(DEBUG)) sink.log(DEBUG, tag, append(new StringBuilder(m1).append(' ').append(i1).append(' ').append(m2), o2).toString());
+        }
+        public static void d(String tag, Object... objects) {
+            if (isLoggable(DEBUG)) sink.log(DEBUG, tag, combineObjectsToString(objects));
+        }
+
+        public static void i(String tag, String m1) {
+            if (isLoggable(INFO)) sink.log(INFO, tag, m1);
+        }
+        public static void i(String tag, String m1, Object o1) {
+            if (isLoggable(INFO)) sink.log(INFO, tag, append(m1, o1).toString());
+        }
+        public static void i(String tag, String m1, int i1) {
+            if (isLoggable(INFO)) sink.log(INFO, tag, new StringBuilder(m1).append(' ').append(i1).toString());
+        }
+        public static void i(String tag, String m1, boolean b1) {
+            if (isLoggable(INFO)) sink.log(INFO, tag, new StringBuilder(m1).append(' ').append(b1).toString());
+        }
+        public static void i(String tag, String m1, Object o1, String m2) {
+            if (isLoggable(INFO)) sink.log(INFO, tag, append(m1, o1).append(' ').append(m2).toString());
+        }
+        public static void i(String tag, String m1, Object o1, String m2, Object o2) {
+            if (isLoggable(INFO)) sink.log(INFO, tag, append(append(m1, o1).append(' ').append(m2), o2).toString());
+        }
+        public static void i(String tag, String m1, Object o1, String m2, int i2) {
+            if (isLoggable(INFO)) sink.log(INFO, tag, append(m1, o1).append(' ').append(m2).append(' ').append(i2).toString());
+        }
+        public static void i(String tag, String m1, Object o1, String m2, boolean b2) {
+            if (isLoggable(INFO)) sink.log(INFO, tag, append(m1, o1).append(' ').append(m2).append(' ').append(b2).toString());
+        }
+        public static void i(String tag, String m1, int i1, String m2) {
+            if (isLoggable(INFO)) sink.log(INFO, tag, new StringBuilder(m1).append(' ').append(i1).append(' ').append(m2).toString());
+        }
+        public static void i(String tag, String m1, int i1, String m2, Object o2) {
+            if (isLoggable(INFO)) sink.log(INFO, tag, append(new StringBuilder(m1).append(' ').append(i1).append(' ').append(m2), o2).toString());
+        }
+        public static void i(String tag, Object... objects) {
+            if (isLoggable(INFO)) sink.log(INFO, tag, combineObjectsToString(objects));
+        }
+
+        public static void w(String tag, String m1) {
+            if (isLoggable(WARN)) sink.log(WARN, tag, m1);
+        }
+        public static void w(String tag, String m1, Object o1) {
+            if (isLoggable(WARN)) sink.log(WARN, tag, append(m1, o1).toString());
+        }
+        public static void w(String tag, String m1, int i1) {
+            if (isLoggable(WARN)) sink.log(WARN, tag, new StringBuilder(m1).append(' ').append(i1).toString());
+        }
+        public static void w(String tag, String m1, boolean b1) {
+            if (isLoggable(WARN)) sink.log(WARN, tag, new StringBuilder(m1).append(' ').append(b1).toString());
+        }
+        public static void w(String tag, String m1, Object o1, String m2) {
+            if (isLoggable(WARN)) sink.log(WARN, tag, append(m1, o1).append(' ').append(m2).toString());
+        }
+        public static void w(String tag, String m1, Object o1, String m2, Object o2) {
+            if (isLoggable(WARN)) sink.log(WARN, tag, append(append(m1, o1).append(' ').append(m2), o2).toString());
+        }
+        public static void w(String tag, String m1, Object o1, String m2, int i2) {
+            if (isLoggable(WARN)) sink.log(WARN, tag, append(m1, o1).append(' ').append(m2).append(' ').append(i2).toString());
+        }
+        public static void w(String tag, String m1, Object o1, String m2, boolean b2) {
+            if (isLoggable(WARN)) sink.log(WARN, tag, append(m1, o1).append(' ').append(m2).append(' ').append(b2).toString());
+        }
+        public static void w(String tag, String m1, int i1, String m2) {
+            if (isLoggable(WARN)) sink.log(WARN, tag, new StringBuilder(m1).append(' ').append(i1).append(' ').append(m2).toString());
+        }
+        public static void w(String tag, String m1, int i1, String m2, Object o2) {
+            if (isLoggable(WARN)) sink.log(WARN, tag, append(new StringBuilder(m1).append(' ').append(i1).append(' ').append(m2), o2).toString());
+        }
+        public static void w(String tag, Object... objects) {
+            if (isLoggable(WARN)) sink.log(WARN, tag, combineObjectsToString(objects));
+        }
+
+        public static void e(String tag, String m1) {
+            if (isLoggable(ERROR)) sink.log(ERROR, tag, m1);
+        }
+        public static void e(String tag, String m1, Object o1) {
+            if (isLoggable(ERROR)) sink.log(ERROR, tag, append(m1, o1).toString());
+        }
+        public static void e(String tag, String m1, int i1) {
+            if (isLoggable(ERROR)) sink.log(ERROR, tag, new StringBuilder(m1).append(' ').append(i1).toString());
+        }
+        public static void e(String tag, String m1, boolean b1) {
+            if (isLoggable(ERROR)) sink.log(ERROR, tag, new StringBuilder(m1).append(' ').append(b1).toString());
+        }
+        public static void e(String tag, String m1, Object o1, String m2) {
+            if (isLoggable(ERROR)) sink.log(ERROR, tag, append(m1, o1).append(' ').append(m2).toString());
+        }
+        public static void e(String tag, String m1, Object o1, String m2, Object o2) {
+            if (isLoggable(ERROR)) sink.log(ERROR, tag, append(append(m1, o1).append(' ').append(m2), o2).toString());
+        }
+        public static void e(String tag, String m1, Object o1, String m2, int i2) {
+            if (isLoggable(ERROR)) sink.log(ERROR, tag, append(m1, o1).append(' ').append(m2).append(' ').append(i2).toString());
+        }
+        public static void e(String tag, String m1, Object o1, String m2, boolean b2) {
+            if (isLoggable(ERROR)) sink.log(ERROR, tag, append(m1, o1).append(' ').append(m2).append(' ').append(b2).toString());
         }
-        public static void i (String tag, Object... objects){
-            Log.i(tag, combineObjectsToString(objects));
+        public static void e(String tag, String m1, int i1, String m2) {
+            if (isLoggable(ERROR)) sink.log(ERROR, tag, new StringBuilder(m1).append(' ').append(i1).append(' ').append(m2).toString());
         }
-        public static void v (String tag, Object... objects){
-            Log.v(tag, combineObjectsToString(objects));
+        public static void e(String tag, String m1, int i1, String m2, Object o2) {
+            if (isLoggable(ERROR)) sink.log(ERROR, tag, append(new StringBuilder(m1).append(' ').append(i1).append(' ').append(m2), o2).toString());
         }
-        public static void e (String tag, Object... objects){
-            Log.e(tag, combineObjectsToString(objects));
+        public static void e(String tag, Object... objects) {
+            if (isLoggable(ERROR)) sink.log(ERROR, tag, combineObjectsToString(objects));
         }
     }
     public static class SC {
@@ -0,0 +1,110 @@
+package com.derek.permissionhelper;
+
+import android.app.Activity;
+import android.app.Fragment;
+import android.app.FragmentManager;
+import android.support.annotation.NonNull;
+import android.support.v4.app.ActivityCompat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.WeakHashMap;
+
+/**
+ * Retained, UI-less fragment holding the running helpers of an activity, so that a flow survives a configuration
+ * change: the helpers move on to the recreated activity instead of being lost with the old one,
+ * their results / pending steps / outstanding request codes included.
+ * Added by the helper itself, nothing to do on the host side. Has to be public for the FragmentManager.
+ */
+public final class PermissionHelperFragment extends Fragment {
+    private static final String TAG = PermissionHelperFragment.class.getName();
+    // added but maybe not committed yet, findFragmentByTag doesn't know about them
+    private static final WeakHashMap<Activity, PermissionHelperFragment> fragments = new WeakHashMap<>();
+
+    private final List<PermissionHelper> helpers = new ArrayList<>();
+    // the activity, if it still fans its results out to a list of callbacks
+    @SuppressWarnings("deprecation")
+    private PermissionHelper.RequestPermissionsActivity legacyHost;
+
+    // registered once per legacy host, whatever the number of helpers: each result is dispatched once
+    private final ActivityCompat.OnRequestPermissionsResultCallback legacyForwarder = new ActivityCompat.OnRequestPermissionsResultCallback() {
+        @Override
+        public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
+            PermissionResultDispatcher.dispatch(requestCode, permissions, grantResults);
+        }
+    };
+
+    public PermissionHelperFragment() {
+        setRetainInstance(true);
+    }
+
+    static PermissionHelperFragment get(Activity activity) {
+        PermissionHelperFragment fragment = fragments.get(activity);
+        if (fragment != null) return fragment;
+
+        FragmentManager fragmentManager = activity.getFragmentManager();
+        fragment = (PermissionHelperFragment) fragmentManager.findFragmentByTag(TAG);
+        if (fragment == null) {
+            fragment = new PermissionHelperFragment();
+            fragmentManager.beginTransaction().add(fragment, TAG).commitAllowingStateLoss();
+        }
+        fragments.put(activity, fragment);
+        fragment.setHost(activity);
+        return fragment;
+    }
+
+    /**
+     * @return helpers running for the activity, null if there is none
+     */
+    static List<PermissionHelper> find(Activity activity) {
+        PermissionHelperFragment fragment = fragments.get(activity);
+        if (fragment == null) fragment = (PermissionHelperFragment) activity.getFragmentManager().findFragmentByTag(TAG);
+        return fragment != null ? new ArrayList<>(fragment.helpers) : null;
+    }
+
+    void add(PermissionHelper helper) {
+        helpers.add(helper);
+    }
+
+    void remove(PermissionHelper helper) {
+        helpers.remove(helper);
+    }
+
+    @SuppressWarnings("deprecation")
+    private void setHost(Activity activity) {
+        PermissionHelper.RequestPermissionsActivity host = activity instanceof PermissionHelper.RequestPermissionsActivity ?
+                (PermissionHelper.RequestPermissionsActivity) activity : null;
+        if (host == legacyHost) return;
+        if (legacyHost != null) legacyHost.removeOnRequestPermissionsResultCallback(legacyForwarder);
+        legacyHost = host;
+        if (legacyHost != null) legacyHost.registerOnRequestPermissionsResultCallback(legacyForwarder);
+    }
+
+    @Override
+    public void onAttach(Activity activity) {
+        super.onAttach(activity);
+        fragments.put(activity, this);
+        setHost(activity);
+        for (PermissionHelper helper : new ArrayList<>(helpers)) {
+            helper.reattach(activity);
+        }
+    }
+
+    @Override
+    public void onDetach() {
+        super.onDetach();
+        setHost(null);
+    }
+
+    /**
+     * only called when the activity is really gone, not on a configuration change
+     */
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        PermissionHelper.RLog.d(TAG, "host destroyed, cancelling", helpers.size(), "helpers");
+        for (PermissionHelper helper : new ArrayList<>(helpers)) {
+            helper.cancel();
+        }
+    }
+}
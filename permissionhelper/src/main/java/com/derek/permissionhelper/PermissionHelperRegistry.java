@@ -0,0 +1,84 @@
+package com.derek.permissionhelper;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Weakly references every running {@link PermissionHelper}.
+ * Entries of collected helpers are purged through a {@link ReferenceQueue} whenever the registry is used,
+ * so memory stays bounded however many flows a long running process starts.
+ * A helper collected before it finished / got cancelled is counted as leaked.
+ */
+public final class PermissionHelperRegistry {
+    private static final ReferenceQueue<PermissionHelper> queue = new ReferenceQueue<>();
+    private static final ConcurrentHashMap<Integer, Entry> entries = new ConcurrentHashMap<>();
+    private static final AtomicInteger nextId = new AtomicInteger();
+    private static final AtomicLong leakedCount = new AtomicLong();
+
+    private static final class Entry extends WeakReference<PermissionHelper> {
+        final int id;
+
+        Entry(PermissionHelper helper, int id) {
+            super(helper, queue);
+            this.id = id;
+        }
+    }
+
+    private PermissionHelperRegistry() {}
+
+    /**
+     * @return id to unregister / look up the helper with
+     */
+    static int register(PermissionHelper helper) {
+        purge();
+        int id = nextId.incrementAndGet();
+        entries.put(id, new Entry(helper, id));
+        return id;
+    }
+
+    static void unregister(int id) {
+        entries.remove(id);
+        purge();
+    }
+
+    static List<PermissionHelper> getLiveHelpers() {
+        purge();
+        List<PermissionHelper> helpers = new ArrayList<>(entries.size());
+        for (Entry entry : entries.values()) {
+            PermissionHelper helper = entry.get();
+            if (helper != null) helpers.add(helper);
+        }
+        return helpers;
+    }
+
+    /**
+     * @return number of helpers which are neither finished nor cancelled
+     */
+    public static int getLiveCount() {
+        purge();
+        return entries.size();
+    }
+
+    /**
+     * @return number of helpers which have been garbage collected without being finished / cancelled
+     */
+    public static long getLeakedCount() {
+        purge();
+        return leakedCount.get();
+    }
+
+    private static void purge() {
+        Reference<? extends PermissionHelper> reference;
+        while ((reference = queue.poll()) != null) {
+            Entry entry = (Entry) reference;
+            // not there anymore if the helper has been unregistered properly before being collected
+            if (entries.remove(entry.id, entry)) leakedCount.incrementAndGet();
+        }
+    }
+}
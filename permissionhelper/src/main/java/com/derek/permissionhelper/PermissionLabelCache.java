@@ -0,0 +1,79 @@
+package com.derek.permissionhelper;
+
+import android.content.pm.PackageManager;
+import android.content.pm.PermissionInfo;
+import android.support.v4.util.LruCache;
+
+import java.util.Locale;
+
+/**
+ * Bounded LRU cache of permission label / description, keyed by permission and locale.
+ * Loading them means a getPermissionInfo IPC plus resource loading, which we don't want to do on the UI thread
+ * right before showing a rationale dialog, use {@link #prefetch(PackageManager, String...)} to warm it up.
+ */
+final class PermissionLabelCache {
+    private static final String TAG = PermissionLabelCache.class.getSimpleName();
+    private static final int MAX_SIZE = 64;
+
+    private static final LruCache<String, Entry> cache = new LruCache<>(MAX_SIZE);
+
+    static final class Entry {
+        final CharSequence label;
+        final CharSequence description;
+
+        Entry(CharSequence label, CharSequence description) {
+            this.label = label;
+            this.description = description;
+        }
+    }
+
+    private PermissionLabelCache() {}
+
+    static Entry get(String permission, PackageManager packageManager) {
+        String key = key(permission, Locale.getDefault());
+        Entry entry = cache.get(key);
+        if (entry == null) {
+            entry = PermissionPreflight.getLabels(permission, Locale.getDefault());
+            if (entry == null) entry = load(permission, packageManager);
+            cache.put(key, entry);
+        }
+        return entry;
+    }
+
+    static void put(String permission, Locale locale, Entry entry) {
+        cache.put(key(permission, locale), entry);
+    }
+
+    static void prefetch(final PackageManager packageManager, final String... permissions) {
+        final Locale locale = Locale.getDefault();
+        BackgroundExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (String permission : permissions) {
+                    String key = key(permission, locale);
+                    if (cache.get(key) == null) cache.put(key, load(permission, packageManager));
+                }
+                PermissionHelper.RLog.d(TAG, "prefetched", permissions.length, "permission labels");
+            }
+        });
+    }
+
+    static void clear() {
+        cache.evictAll();
+    }
+
+    private static Entry load(String permission, PackageManager packageManager) {
+        try {
+            PermissionMetrics.onPackageManagerCall();
+            PermissionInfo permissionInfo = packageManager.getPermissionInfo(permission, 0);
+            return new Entry(permissionInfo.loadLabel(packageManager), permissionInfo.loadDescription(packageManager));
+        } catch (PackageManager.NameNotFoundException e) {
+            e.printStackTrace();
+        }
+        return new Entry(permission, null);
+    }
+
+    private static String key(String permission, Locale locale) {
+        return permission + '|' + locale;
+    }
+}
@@ -0,0 +1,202 @@
+package com.derek.permissionhelper;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Process-wide counters and latency histograms of the permission flows, to be read / forwarded to telemetry.
+ * Everything lives in fixed-size atomic arrays allocated once, recording a sample allocates nothing.
+ * A {@link Listener} can be set to get every sample as it is recorded.
+ */
+public final class PermissionMetrics {
+    public static final int FLOWS_SUCCEEDED = 0;
+    public static final int FLOWS_FAILED = 1;
+    public static final int ROUND_TRIPS = 2;
+    public static final int ROUND_TRIPS_INTERRUPTED = 3;
+    public static final int RATIONALES_SHOWN = 4;
+    public static final int PACKAGE_MANAGER_IPCS = 5;
+    public static final int GRANTS = 6;
+    public static final int DENIALS = 7;
+    private static final int COUNTER_COUNT = 8;
+
+    // distinct permissions tracked one by one, the rest only goes into GRANTS / DENIALS
+    private static final int PERMISSION_CAPACITY = 64;
+
+    public interface Listener {
+        /**
+         * @param durationNanos from checkRequestPermission to onSuccess / onFail
+         * @param packageManagerCalls package manager IPCs made for the flow (permission and rationale checks,
+         *                            label loads), the ones answered from the caches don't count
+         */
+        void onFlowFinished(long durationNanos, boolean satisfied, int rationalesShown, int roundTrips, int packageManagerCalls);
+
+        /**
+         * @param durationNanos from the request to the system until its result
+         */
+        void onRoundTrip(int requestCode, String[] permissions, long durationNanos, boolean interrupted);
+    }
+
+    /**
+     * Latency histogram with power of two buckets in milliseconds: bucket i counts durations in [2^(i-1), 2^i) ms,
+     * bucket 0 the ones under a millisecond
+     */
+    public static final class Histogram {
+        public static final int BUCKET_COUNT = 32;
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+
+        private Histogram() {}
+
+        void record(long durationNanos) {
+            long millis = TimeUnit.NANOSECONDS.toMillis(Math.max(0, durationNanos));
+            int bucket = Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(millis));
+            buckets.incrementAndGet(bucket);
+        }
+
+        public long getBucket(int bucket) {
+            return buckets.get(bucket);
+        }
+
+        public long getCount() {
+            long count = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) count += buckets.get(i);
+            return count;
+        }
+
+        /**
+         * @param percentile between 0 and 1, e.g. 0.95
+         * @return upper bound in milliseconds of the bucket the percentile falls in, 0 if nothing has been recorded
+         */
+        public long getPercentileMillis(double percentile) {
+            long count = getCount();
+            if (count == 0) return 0;
+            long rank = (long) Math.ceil(percentile * count);
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += buckets.get(i);
+                if (seen >= rank && seen > 0) return 1L << i;
+            }
+            return 1L << (BUCKET_COUNT - 1);
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKET_COUNT; i++) buckets.set(i, 0);
+        }
+    }
+
+    private static final AtomicLongArray counters = new AtomicLongArray(COUNTER_COUNT);
+    private static final Histogram flowLatency = new Histogram();
+    private static final Histogram roundTripLatency = new Histogram();
+    private static final AtomicReferenceArray<String> permissions = new AtomicReferenceArray<>(PERMISSION_CAPACITY);
+    private static final AtomicLongArray permissionGrants = new AtomicLongArray(PERMISSION_CAPACITY);
+    private static final AtomicLongArray permissionDenials = new AtomicLongArray(PERMISSION_CAPACITY);
+    private static volatile Listener listener;
+    // per-flow counter of the IPCs made on this thread, see countFlowCalls
+    private static final ThreadLocal<int[]> flowCalls = new ThreadLocal<>();
+
+    private PermissionMetrics() {}
+
+    public static void setListener(Listener listener) {
+        PermissionMetrics.listener = listener;
+    }
+
+    /**
+     * @param counter one of {@link #FLOWS_SUCCEEDED}, {@link #FLOWS_FAILED}, {@link #ROUND_TRIPS}...
+     */
+    public static long getCounter(int counter) {
+        return counters.get(counter);
+    }
+
+    public static Histogram getFlowLatency() {
+        return flowLatency;
+    }
+
+    public static Histogram getRoundTripLatency() {
+        return roundTripLatency;
+    }
+
+    /**
+     * @return -1 if the permission is not tracked (never answered, or more than 64 distinct permissions)
+     */
+    public static long getGrantCount(String permission) {
+        int slot = slotOf(permission, false);
+        return slot >= 0 ? permissionGrants.get(slot) : -1;
+    }
+
+    public static long getDenialCount(String permission) {
+        int slot = slotOf(permission, false);
+        return slot >= 0 ? permissionDenials.get(slot) : -1;
+    }
+
+    public static void reset() {
+        for (int i = 0; i < COUNTER_COUNT; i++) counters.set(i, 0);
+        for (int i = 0; i < PERMISSION_CAPACITY; i++) {
+            permissions.set(i, null);
+            permissionGrants.set(i, 0);
+            permissionDenials.set(i, 0);
+        }
+        flowLatency.reset();
+        roundTripLatency.reset();
+    }
+
+    static void onFlowFinished(long startNanos, boolean satisfied, int rationalesShown, int roundTrips, int packageManagerCalls) {
+        long durationNanos = System.nanoTime() - startNanos;
+        counters.incrementAndGet(satisfied ? FLOWS_SUCCEEDED : FLOWS_FAILED);
+        flowLatency.record(durationNanos);
+        Listener listener = PermissionMetrics.listener;
+        if (listener != null) listener.onFlowFinished(durationNanos, satisfied, rationalesShown, roundTrips, packageManagerCalls);
+    }
+
+    static void onRoundTrip(int requestCode, String[] permissions, long startNanos, boolean interrupted) {
+        long durationNanos = System.nanoTime() - startNanos;
+        counters.incrementAndGet(interrupted ? ROUND_TRIPS_INTERRUPTED : ROUND_TRIPS);
+        if (! interrupted) roundTripLatency.record(durationNanos);
+        Listener listener = PermissionMetrics.listener;
+        if (listener != null) listener.onRoundTrip(requestCode, permissions, durationNanos, interrupted);
+    }
+
+    static void onRationaleShown() {
+        counters.incrementAndGet(RATIONALES_SHOWN);
+    }
+
+    static void onPackageManagerCall() {
+        counters.incrementAndGet(PACKAGE_MANAGER_IPCS);
+        int[] calls = flowCalls.get();
+        if (calls != null) calls[0]++;
+    }
+
+    /**
+     * the package manager IPCs made on this thread are counted in the given per-flow counter as well, until the
+     * previous counter is given back
+     * @return the counter in use until now (null if none)
+     */
+    static int[] countFlowCalls(int[] calls) {
+        int[] previous = flowCalls.get();
+        flowCalls.set(calls);
+        return previous;
+    }
+
+    static void onPermissionResult(String permission, boolean granted) {
+        counters.incrementAndGet(granted ? GRANTS : DENIALS);
+        int slot = slotOf(permission, true);
+        if (slot >= 0) (granted ? permissionGrants : permissionDenials).incrementAndGet(slot);
+    }
+
+    /**
+     * open addressing over the fixed table, a slot is claimed once and never freed
+     */
+    private static int slotOf(String permission, boolean claim) {
+        int start = (permission.hashCode() & 0x7FFFFFFF) % PERMISSION_CAPACITY;
+        for (int i = 0; i < PERMISSION_CAPACITY; i++) {
+            int slot = (start + i) % PERMISSION_CAPACITY;
+            String key = permissions.get(slot);
+            if (key == null) {
+                if (! claim) return -1;
+                if (permissions.compareAndSet(slot, null, permission)) return slot;
+                key = permissions.get(slot);
+            }
+            if (key.equals(permission)) return slot;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,145 @@
+package com.derek.permissionhelper;
+
+import android.app.Activity;
+import android.app.Application;
+import android.content.Context;
+import android.os.Bundle;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Pushes permission changes to subscribers, instead of every component checking its permissions on every onResume.
+ * Grants only change while the app is in the background (Settings app, revoke from the shell...) or through a
+ * helper flow: {@link #install(Application)} takes one bulk snapshot of the observed permissions each time the app
+ * comes back to the foreground, diffs it against the last known state and tells each subscriber about the changes
+ * of its permissions only. Results of helper flows are pushed as they come.
+ * Main thread only.
+ */
+public final class PermissionObserver {
+    private static final String TAG = PermissionObserver.class.getSimpleName();
+
+    public interface Subscriber {
+        void onPermissionChanged(String permission, boolean granted);
+    }
+
+    private static Context applicationContext;
+    private static int startedCount;
+    // false until the app has been in the background once, the launch itself changes nothing
+    private static boolean backgrounded;
+    private static final HashMap<String, List<Subscriber>> subscribers = new HashMap<>();
+    private static final HashMap<String, Boolean> lastKnown = new HashMap<>();
+    // keys of subscribers, what the snapshot is taken of
+    private static String[] observed = new String[0];
+
+    private PermissionObserver() {}
+
+    private static final Application.ActivityLifecycleCallbacks lifecycleCallbacks = new Application.ActivityLifecycleCallbacks() {
+        @Override
+        public void onActivityStarted(Activity activity) {
+            // back to the foreground, the user may have been in the Settings app
+            if (startedCount++ == 0 && backgrounded) {
+                PermissionStatusCache.invalidate();
+                refresh();
+            }
+        }
+
+        @Override
+        public void onActivityStopped(Activity activity) {
+            if (startedCount > 0 && --startedCount == 0) backgrounded = true;
+        }
+
+        @Override
+        public void onActivityCreated(Activity activity, Bundle savedInstanceState) {}
+
+        @Override
+        public void onActivityResumed(Activity activity) {}
+
+        @Override
+        public void onActivityPaused(Activity activity) {}
+
+        @Override
+        public void onActivitySaveInstanceState(Activity activity, Bundle outState) {}
+
+        @Override
+        public void onActivityDestroyed(Activity activity) {}
+    };
+
+    /**
+     * call from Application.onCreate
+     */
+    public static void install(Application application) {
+        if (applicationContext != null) return;
+        applicationContext = application.getApplicationContext();
+        application.registerActivityLifecycleCallbacks(lifecycleCallbacks);
+    }
+
+    /**
+     * @param permissions the subscriber is only told about these, their current state is taken as the starting point
+     */
+    public static void subscribe(Subscriber subscriber, String... permissions) {
+        boolean added = false;
+        for (String permission : permissions) {
+            List<Subscriber> list = subscribers.get(permission);
+            if (list == null) {
+                list = new ArrayList<>(1);
+                subscribers.put(permission, list);
+                added = true;
+            }
+            if (! list.contains(subscriber)) list.add(subscriber);
+            if (! lastKnown.containsKey(permission) && applicationContext != null) {
+                lastKnown.put(permission, PermissionHelper.hasPermission(applicationContext, permission));
+            }
+        }
+        if (added) observed = subscribers.keySet().toArray(new String[subscribers.size()]);
+    }
+
+    public static void unsubscribe(Subscriber subscriber) {
+        boolean removed = false;
+        for (String permission : observed) {
+            List<Subscriber> list = subscribers.get(permission);
+            if (list.remove(subscriber) && list.isEmpty()) {
+                subscribers.remove(permission);
+                lastKnown.remove(permission);
+                removed = true;
+            }
+        }
+        if (removed) observed = subscribers.keySet().toArray(new String[subscribers.size()]);
+    }
+
+    /**
+     * one bulk check of every observed permission (through {@link PermissionStatusCache}),
+     * subscribers are told about what changed since the last one
+     */
+    public static void refresh() {
+        if (applicationContext == null || observed.length == 0) return;
+        String[] permissions = observed;
+        BitSet granted = PermissionHelper.getGrantedPermissions(applicationContext, permissions);
+        for (int i = 0; i < permissions.length; i++) {
+            update(permissions[i], granted.get(i));
+        }
+    }
+
+    /**
+     * a helper flow got the answer of the user
+     */
+    static void onResult(String permission, boolean granted) {
+        if (subscribers.isEmpty()) return;
+        update(permission, granted);
+    }
+
+    private static void update(String permission, boolean granted) {
+        List<Subscriber> list = subscribers.get(permission);
+        if (list == null) return;
+        Boolean previous = lastKnown.put(permission, granted);
+        // no notification for the first state known
+        if (previous == null || previous == granted) return;
+
+        PermissionHelper.RLog.d(TAG, "Permission", permission, "granted?", granted);
+        for (Subscriber subscriber : new ArrayList<>(list)) {
+            subscriber.onPermissionChanged(permission, granted);
+        }
+    }
+}
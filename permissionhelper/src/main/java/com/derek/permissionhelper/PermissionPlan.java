@@ -0,0 +1,123 @@
+package com.derek.permissionhelper;
+
+import com.derek.permissionhelper.PermissionHelper.Permissions;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Immutable, flat form of a {@code Permissions...} request:
+ * every permission string appears once, each top-level entry is an int array of indices into it,
+ * and the critical permissions are precomputed as a mask.
+ * Checking / parsing a plan is array lookups, linear in the size of the plan (or of the result).
+ */
+public final class PermissionPlan {
+    private final Permissions[] entries;
+    private final String[] permissions;
+    private final int[][] entryIndices;
+    private final BitSet criticalMask;
+    private final HashMap<String, Integer> indexMap;
+
+    private PermissionPlan(Permissions[] entries, List<String> permissions, int[][] entryIndices, BitSet criticalMask,
+                           HashMap<String, Integer> indexMap) {
+        this.entries = entries;
+        this.permissions = permissions.toArray(new String[permissions.size()]);
+        this.entryIndices = entryIndices;
+        this.criticalMask = criticalMask;
+        this.indexMap = indexMap;
+    }
+
+    public static PermissionPlan compile(Permissions... permissions) {
+        List<String> permissionList = new ArrayList<>();
+        HashMap<String, Integer> indexMap = new HashMap<>();
+        BitSet criticalMask = new BitSet();
+        int[][] entryIndices = new int[permissions.length][];
+
+        BitSet entryMask = new BitSet();
+        for (int i = 0; i < permissions.length; i++) {
+            entryMask.clear();
+            collect(permissions[i], permissionList, indexMap, criticalMask, entryMask);
+            int[] indices = new int[entryMask.cardinality()];
+            for (int index = entryMask.nextSetBit(0), j = 0; index >= 0; index = entryMask.nextSetBit(index + 1)) {
+                indices[j++] = index;
+            }
+            entryIndices[i] = indices;
+        }
+        return new PermissionPlan(permissions.clone(), permissionList, entryIndices, criticalMask, indexMap);
+    }
+
+    private static void collect(Permissions permission, List<String> permissionList, HashMap<String, Integer> indexMap,
+                                BitSet criticalMask, BitSet entryMask) {
+        if (permission.isGroup) {
+            for (Permissions sub : permission.permissionGroup) {
+                collect(sub, permissionList, indexMap, criticalMask, entryMask);
+            }
+            return;
+        }
+        if (permission.permissionStr == null) throw new IllegalArgumentException("Permission string can't be null: " + permission);
+
+        Integer index = indexMap.get(permission.permissionStr);
+        if (index == null) {
+            index = permissionList.size();
+            permissionList.add(permission.permissionStr);
+            indexMap.put(permission.permissionStr, index);
+        }
+        if (permission.critical) criticalMask.set(index);
+        entryMask.set(index);
+    }
+
+    /**
+     * @return number of distinct permissions
+     */
+    public int size() {
+        return permissions.length;
+    }
+
+    public int entryCount() {
+        return entries.length;
+    }
+
+    public Permissions getEntry(int entry) {
+        return entries[entry];
+    }
+
+    public String getPermission(int index) {
+        return permissions[index];
+    }
+
+    /**
+     * @return index of the permission, -1 if it is not part of this plan
+     */
+    public int indexOf(String permission) {
+        Integer index = indexMap.get(permission);
+        return index != null ? index : -1;
+    }
+
+    public boolean isCritical(int index) {
+        return criticalMask.get(index);
+    }
+
+    /**
+     * @return indices of the permissions of a top-level entry, not a copy, don't modify
+     */
+    int[] getEntryIndices(int entry) {
+        return entryIndices[entry];
+    }
+
+    public String[] getPermissions() {
+        return permissions.clone();
+    }
+
+    /**
+     * @param granted indexed the same way as this plan
+     * @return every critical permission is granted
+     */
+    public boolean isSatisfied(BitSet granted) {
+        for (int index = criticalMask.nextSetBit(0); index >= 0; index = criticalMask.nextSetBit(index + 1)) {
+            if (! granted.get(index)) return false;
+        }
+        return true;
+    }
+}
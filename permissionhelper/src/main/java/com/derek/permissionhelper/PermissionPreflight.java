@@ -0,0 +1,119 @@
+package com.derek.permissionhelper;
+
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.PermissionInfo;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Opt-in warm up, call {@link #start(Context)} from Application.onCreate:
+ * on a background thread, reads the permissions declared in the manifest and resolves their
+ * {@link PermissionInfo} (platform group, label, description) and current grant state into an in-memory index.
+ * The label / description / status lookups of the helper read from it, so the first permission-gated screen
+ * doesn't pay the package manager round-trips.
+ */
+public final class PermissionPreflight {
+    private static final String TAG = PermissionPreflight.class.getSimpleName();
+
+    static final class Entry {
+        final String group;
+        final int protectionLevel;
+        final Locale locale;
+        final PermissionLabelCache.Entry labels;
+
+        Entry(String group, int protectionLevel, Locale locale, PermissionLabelCache.Entry labels) {
+            this.group = group;
+            this.protectionLevel = protectionLevel;
+            this.locale = locale;
+            this.labels = labels;
+        }
+    }
+
+    private static final ConcurrentHashMap<String, Entry> index = new ConcurrentHashMap<>();
+    private static volatile boolean started = false;
+    private static volatile boolean ready = false;
+
+    private PermissionPreflight() {}
+
+    public static void start(Context context) {
+        if (started) return;
+        started = true;
+
+        final Context applicationContext = context.getApplicationContext();
+        BackgroundExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                warmUp(applicationContext);
+                PermissionDenialHistory.load(applicationContext);
+                ready = true;
+                PermissionHelper.RLog.d(TAG, "indexed", index.size(), "permissions");
+            }
+        });
+    }
+
+    /**
+     * @return true once the index has been built
+     */
+    public static boolean isReady() {
+        return ready;
+    }
+
+    static Entry get(String permission) {
+        return index.get(permission);
+    }
+
+    /**
+     * @return label / description from the index, null if not indexed (yet) or indexed in another locale
+     */
+    static PermissionLabelCache.Entry getLabels(String permission, Locale locale) {
+        Entry entry = index.get(permission);
+        return entry != null && entry.locale.equals(locale) ? entry.labels : null;
+    }
+
+    // for tests: back to not started
+    static void reset() {
+        index.clear();
+        started = false;
+        ready = false;
+    }
+
+    private static void warmUp(Context context) {
+        PackageManager packageManager = context.getPackageManager();
+        int generation = PermissionStatusCache.generation();
+        PackageInfo packageInfo;
+        try {
+            PermissionMetrics.onPackageManagerCall();
+            packageInfo = packageManager.getPackageInfo(context.getPackageName(), PackageManager.GET_PERMISSIONS);
+        } catch (PackageManager.NameNotFoundException e) {
+            e.printStackTrace();
+            return;
+        }
+        if (packageInfo.requestedPermissions == null) return;
+
+        Locale locale = Locale.getDefault();
+        for (int i = 0; i < packageInfo.requestedPermissions.length; i++) {
+            String permission = packageInfo.requestedPermissions[i];
+            if (packageInfo.requestedPermissionsFlags != null) {
+                boolean granted = (packageInfo.requestedPermissionsFlags[i] & PackageInfo.REQUESTED_PERMISSION_GRANTED) != 0;
+                PermissionStatusCache.put(permission, granted, generation);
+            }
+            try {
+                PermissionMetrics.onPackageManagerCall();
+                PermissionInfo permissionInfo = packageManager.getPermissionInfo(permission, 0);
+                PermissionLabelCache.Entry labels = new PermissionLabelCache.Entry(
+                        permissionInfo.loadLabel(packageManager), permissionInfo.loadDescription(packageManager));
+                index.put(permission, new Entry(permissionInfo.group, permissionInfo.protectionLevel, locale, labels));
+                if ((permissionInfo.protectionLevel & PermissionInfo.PROTECTION_MASK_BASE) == PermissionInfo.PROTECTION_DANGEROUS) {
+                    // the ones which may get a rationale dialog
+                    PermissionLabelCache.put(permission, locale, labels);
+                }
+            } catch (PackageManager.NameNotFoundException e) {
+                // declared by an app which isn't installed (anymore), nothing to index
+                PermissionHelper.RLog.w(TAG, "Unknown permission", permission);
+            }
+        }
+    }
+}
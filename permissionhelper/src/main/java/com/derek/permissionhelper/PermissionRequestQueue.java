@@ -0,0 +1,177 @@
+package com.derek.permissionhelper;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * Process-wide queue of the system permission requests of every helper.
+ * The system shows one permission dialog at a time and answers a concurrent request with empty results,
+ * which would look like a denial, so requests are started one after the other:
+ * highest priority first, in order of arrival within a priority.
+ * A request interrupted anyway (empty results) is asked again instead of being reported.
+ * A request which won't be shown (cancelled, or its helper is gone) is completed as not answered.
+ */
+public final class PermissionRequestQueue {
+    private static final String TAG = PermissionRequestQueue.class.getSimpleName();
+
+    /** asked in response to a user action, goes first */
+    public static final int PRIORITY_USER_INITIATED = 0;
+    /** asked on the app's own initiative (onboarding, features warming up) */
+    public static final int PRIORITY_BACKGROUND = 1;
+
+    private static final int MAX_RETRIES = 2;
+
+    interface Requester {
+        /**
+         * @return false if the request can't be made anymore (its helper is gone)
+         */
+        boolean request(int requestCode, String[] permissions);
+    }
+
+    private static final class Ticket {
+        final int priority;
+        final long sequence;
+        final int requestCode;
+        final String[] permissions;
+        final Requester requester;
+        int retries;
+        long startNanos;
+
+        Ticket(int priority, long sequence, int requestCode, String[] permissions, Requester requester) {
+            this.priority = priority;
+            this.sequence = sequence;
+            this.requestCode = requestCode;
+            this.permissions = permissions;
+            this.requester = requester;
+        }
+    }
+
+    private static final PriorityQueue<Ticket> queue = new PriorityQueue<>(8, new Comparator<Ticket>() {
+        @Override
+        public int compare(Ticket lhs, Ticket rhs) {
+            if (lhs.priority != rhs.priority) return lhs.priority < rhs.priority ? -1 : 1;
+            return lhs.sequence < rhs.sequence ? -1 : (lhs.sequence == rhs.sequence ? 0 : 1);
+        }
+    });
+    private static long nextSequence;
+    // the request the system dialog is showing, null if none
+    private static Ticket current;
+
+    private PermissionRequestQueue() {}
+
+    static void enqueue(int priority, int requestCode, String[] permissions, Requester requester) {
+        synchronized (PermissionRequestQueue.class) {
+            queue.add(new Ticket(priority, nextSequence++, requestCode, permissions, requester));
+            if (current != null) {
+                PermissionHelper.RLog.d(TAG, "dialog busy, queued request code", requestCode);
+                return;
+            }
+        }
+        startNext();
+    }
+
+    /**
+     * a queued request is dropped (completed as not answered), if it is the one being shown the next one can go
+     */
+    static void cancel(int requestCode) {
+        Ticket dropped = null;
+        boolean wasCurrent = false;
+        synchronized (PermissionRequestQueue.class) {
+            if (current != null && current.requestCode == requestCode) {
+                dropped = current;
+                wasCurrent = true;
+                current = null;
+            } else {
+                for (Ticket ticket : queue) {
+                    if (ticket.requestCode == requestCode) {
+                        queue.remove(ticket);
+                        dropped = ticket;
+                        break;
+                    }
+                }
+            }
+        }
+        if (dropped == null) return;
+        drop(dropped);
+        if (wasCurrent) startNext();
+    }
+
+    /**
+     * Called with every result before it is delivered
+     * @return true if the request has been interrupted and is asked again, the result must not be delivered
+     */
+    static boolean retry(int requestCode, String[] permissions, int[] grantResults) {
+        Ticket ticket;
+        synchronized (PermissionRequestQueue.class) {
+            if (current == null || current.requestCode != requestCode) return false;
+            if (grantResults.length > 0 || current.retries >= MAX_RETRIES) return false;
+            current.retries++;
+            PermissionHelper.RLog.d(TAG, "request code", requestCode, "has been interrupted, asking again");
+            // keeps its sequence number, so it's still first of its priority
+            queue.add(current);
+            ticket = current;
+            current = null;
+        }
+        PermissionMetrics.onRoundTrip(requestCode, ticket.permissions, ticket.startNanos, true);
+        startNext();
+        return true;
+    }
+
+    /**
+     * Called once the result has been delivered
+     */
+    static void onResult(int requestCode) {
+        Ticket ticket;
+        synchronized (PermissionRequestQueue.class) {
+            if (current == null || current.requestCode != requestCode) return;
+            ticket = current;
+            current = null;
+        }
+        PermissionMetrics.onRoundTrip(requestCode, ticket.permissions, ticket.startNanos, false);
+        startNext();
+    }
+
+    private static void startNext() {
+        while (true) {
+            Ticket ticket;
+            synchronized (PermissionRequestQueue.class) {
+                if (current != null) return;
+                ticket = queue.poll();
+                if (ticket == null) return;
+                current = ticket;
+            }
+            PermissionHelper.RLog.d(TAG, "starting request code", ticket.requestCode);
+            ticket.startNanos = System.nanoTime();
+            if (ticket.requester.request(ticket.requestCode, ticket.permissions)) return;
+
+            synchronized (PermissionRequestQueue.class) {
+                if (current == ticket) current = null;
+            }
+            drop(ticket);
+        }
+    }
+
+    /**
+     * The request won't be shown: the helpers attached to it ask for themselves and its own helper gets
+     * empty results (nothing answered) to go on with its flow, instead of waiting forever
+     */
+    private static void drop(Ticket ticket) {
+        PermissionHelper.RLog.d(TAG, "dropping request code", ticket.requestCode);
+        InFlightRequests.cancel(ticket.requestCode);
+        PermissionResultDispatcher.deliverNotAnswered(ticket.requestCode);
+    }
+
+    /**
+     * @return number of requests waiting for the dialog to be free
+     */
+    public static synchronized int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * @return true if a system dialog started from the queue is waiting for its result
+     */
+    public static synchronized boolean isBusy() {
+        return current != null;
+    }
+}
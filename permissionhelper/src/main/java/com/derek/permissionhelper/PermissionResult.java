@@ -0,0 +1,64 @@
+package com.derek.permissionhelper;
+
+import java.util.BitSet;
+
+/**
+ * Grant state of one request, indexed by its {@link PermissionPlan}.
+ * Kept apart from the {@link PermissionHelper.Permissions} definitions so those can be shared.
+ */
+public final class PermissionResult {
+    private final PermissionPlan plan;
+    final BitSet granted;
+    // found granted or answered by the user
+    final BitSet answered;
+
+    PermissionResult(PermissionPlan plan) {
+        this.plan = plan;
+        this.granted = new BitSet(plan.size());
+        this.answered = new BitSet(plan.size());
+    }
+
+    public PermissionPlan getPlan() {
+        return plan;
+    }
+
+    public boolean isGranted(int index) {
+        return granted.get(index);
+    }
+
+    /**
+     * @return false as well if the permission is not part of the request
+     */
+    public boolean isGranted(String permission) {
+        int index = plan.indexOf(permission);
+        return index >= 0 && granted.get(index);
+    }
+
+    public boolean isAnswered(int index) {
+        return answered.get(index);
+    }
+
+    /**
+     * @return immutable copy of the current state
+     */
+    public PermissionSnapshot snapshot() {
+        return new PermissionSnapshot(plan, granted, answered);
+    }
+
+    /**
+     * @return every critical permission of the request is granted
+     */
+    public boolean isSatisfied() {
+        return plan.isSatisfied(granted);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder stringBuilder = new StringBuilder("PermissionResult{");
+        for (int i = 0; i < plan.size(); i++) {
+            if (i > 0) stringBuilder.append(", ");
+            stringBuilder.append(plan.getPermission(i)).append('=').append(granted.get(i));
+        }
+        return stringBuilder.append('}').toString();
+    }
+}
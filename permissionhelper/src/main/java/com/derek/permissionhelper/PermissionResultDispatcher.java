@@ -0,0 +1,138 @@
+package com.derek.permissionhelper;
+
+import android.support.annotation.NonNull;
+import android.support.v4.app.ActivityCompat;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Routes system permission results to the helper which made the request, so that the host activity
+ * doesn't have to keep a list of callbacks and fan every result out to every helper:
+ * <pre>
+ * public void onRequestPermissionsResult(int requestCode, String[] permissions, int[] grantResults) {
+ *     super.onRequestPermissionsResult(requestCode, permissions, grantResults);
+ *     PermissionResultDispatcher.dispatch(requestCode, permissions, grantResults);
+ * }
+ * </pre>
+ * The dispatcher hands out the request codes itself: the lower bits are a slot in a fixed table,
+ * the upper ones a per-slot generation, so a result is delivered with one array read.
+ * Registration / removal are lock free (CAS on the slot) and a result is delivered at most once.
+ */
+public final class PermissionResultDispatcher {
+    private static final String TAG = PermissionResultDispatcher.class.getSimpleName();
+
+    private static final int SLOT_BITS = 8;
+    private static final int CAPACITY = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = CAPACITY - 1;
+    // FragmentActivity only accepts request codes in the lower 16 bits
+    private static final int MAX_GENERATION = (1 << (16 - SLOT_BITS)) - 1;
+
+    private static final String[] EMPTY_PERMISSIONS = new String[0];
+    private static final int[] EMPTY_GRANT_RESULTS = new int[0];
+
+    private static final AtomicReferenceArray<Registration> slots = new AtomicReferenceArray<>(CAPACITY);
+    private static final AtomicIntegerArray generations = new AtomicIntegerArray(CAPACITY);
+    private static final AtomicInteger nextSlot = new AtomicInteger();
+
+    private static final class Registration {
+        final int requestCode;
+        final ActivityCompat.OnRequestPermissionsResultCallback callback;
+        // waits for Activity.onActivityResult, not for a permission result
+        final boolean activityResult;
+
+        Registration(int requestCode, ActivityCompat.OnRequestPermissionsResultCallback callback, boolean activityResult) {
+            this.requestCode = requestCode;
+            this.callback = callback;
+            this.activityResult = activityResult;
+        }
+    }
+
+    private PermissionResultDispatcher() {}
+
+    /**
+     * @return a new request code, the result for it will be delivered to the callback
+     */
+    static int register(ActivityCompat.OnRequestPermissionsResultCallback callback) {
+        return register(callback, false);
+    }
+
+    /**
+     * @return a new request code for startActivityForResult, only {@link #dispatchActivityResult(int)} delivers to the callback
+     */
+    static int registerActivityResult(ActivityCompat.OnRequestPermissionsResultCallback callback) {
+        return register(callback, true);
+    }
+
+    private static int register(ActivityCompat.OnRequestPermissionsResultCallback callback, boolean activityResult) {
+        for (int attempt = 0; attempt < CAPACITY; attempt++) {
+            int slot = nextSlot.getAndIncrement() & SLOT_MASK;
+            if (slots.get(slot) != null) continue;
+
+            // generation starts at 1, request code 0 stays free for the app setting screen
+            int generation = generations.incrementAndGet(slot) % MAX_GENERATION + 1;
+            Registration registration = new Registration(generation << SLOT_BITS | slot, callback, activityResult);
+            if (slots.compareAndSet(slot, null, registration)) return registration.requestCode;
+        }
+        throw new IllegalStateException("More than " + CAPACITY + " permission requests in flight");
+    }
+
+    /**
+     * forget about a request code, its result (if it ever comes) won't be delivered
+     */
+    static boolean unregister(int requestCode) {
+        int slot = requestCode & SLOT_MASK;
+        Registration registration = slots.get(slot);
+        return registration != null && registration.requestCode == requestCode && slots.compareAndSet(slot, registration, null);
+    }
+
+    /**
+     * Call from Activity.onRequestPermissionsResult
+     * @return true if the result belongs to a request made by a {@link PermissionHelper}
+     */
+    public static boolean dispatch(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
+        if ((requestCode & ~0xFFFF) != 0) return false;
+        // interrupted by another dialog, asked again, the result to deliver is the next one
+        if (PermissionRequestQueue.retry(requestCode, permissions, grantResults)) return true;
+        // before the owner goes on with its flow, it may be gone (cancelled) but others may be waiting on it
+        InFlightRequests.complete(requestCode, permissions, grantResults);
+
+        boolean delivered = deliver(requestCode, permissions, grantResults, false);
+        // after delivery: a follow-up request of the same flow competes with the queued ones on priority
+        PermissionRequestQueue.onResult(requestCode);
+        return delivered;
+    }
+
+    /**
+     * the request won't be shown, its callback (if it is still registered) gets empty results: nothing answered
+     */
+    static boolean deliverNotAnswered(int requestCode) {
+        return deliver(requestCode, EMPTY_PERMISSIONS, EMPTY_GRANT_RESULTS, false);
+    }
+
+    private static boolean deliver(int requestCode, String[] permissions, int[] grantResults, boolean activityResult) {
+        int slot = requestCode & SLOT_MASK;
+        Registration registration = slots.get(slot);
+        if (registration == null || registration.requestCode != requestCode) return false;
+        // an activity result with the request code of a permission request (or the other way round) isn't ours
+        if (registration.activityResult != activityResult) return false;
+        // whoever clears the slot delivers the result, so it's delivered once even if dispatched twice
+        if (! slots.compareAndSet(slot, registration, null)) return false;
+
+        PermissionHelper.RLog.d(TAG, "dispatching result of request code", requestCode);
+        registration.callback.onRequestPermissionsResult(requestCode, permissions, grantResults);
+        return true;
+    }
+
+    /**
+     * Call from Activity.onActivityResult, for the round-trips to the app settings screen made with
+     * {@link PermissionHelper#openAppSettingAndResume(android.app.Activity)}, which report no permission result.
+     * The app's own activity results go through untouched, even if their request code is one of a pending permission request.
+     * @return true if the request code has been handed out for an activity result by the dispatcher
+     */
+    public static boolean dispatchActivityResult(int requestCode) {
+        if ((requestCode & ~0xFFFF) != 0) return false;
+        return deliver(requestCode, EMPTY_PERMISSIONS, EMPTY_GRANT_RESULTS, true);
+    }
+}
@@ -0,0 +1,70 @@
+package com.derek.permissionhelper;
+
+import java.util.BitSet;
+
+/**
+ * Immutable copy of a {@link PermissionResult} at one point of the flow, two bit arrays indexed by its {@link PermissionPlan}.
+ * Safe to keep and to hand to another thread.
+ */
+public final class PermissionSnapshot {
+    private final PermissionPlan plan;
+    private final long[] granted;
+    private final long[] answered;
+
+    PermissionSnapshot(PermissionPlan plan, BitSet granted, BitSet answered) {
+        this.plan = plan;
+        this.granted = granted.toLongArray();
+        this.answered = answered.toLongArray();
+    }
+
+    public PermissionPlan getPlan() {
+        return plan;
+    }
+
+    public boolean isGranted(int index) {
+        return get(granted, index);
+    }
+
+    /**
+     * @return false as well if the permission is not part of the request
+     */
+    public boolean isGranted(String permission) {
+        int index = plan.indexOf(permission);
+        return index >= 0 && get(granted, index);
+    }
+
+    /**
+     * @return true once the permission has been found granted or has been answered by the user
+     */
+    public boolean isAnswered(int index) {
+        return get(answered, index);
+    }
+
+    public boolean isAnswered(String permission) {
+        int index = plan.indexOf(permission);
+        return index >= 0 && get(answered, index);
+    }
+
+    /**
+     * @return every critical permission of the request is granted
+     */
+    public boolean isSatisfied() {
+        return plan.isSatisfied(BitSet.valueOf(granted));
+    }
+
+    private static boolean get(long[] words, int index) {
+        int word = index >> 6;
+        return word < words.length && (words[word] & (1L << index)) != 0;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder stringBuilder = new StringBuilder("PermissionSnapshot{");
+        for (int i = 0; i < plan.size(); i++) {
+            if (! isAnswered(i)) continue;
+            if (stringBuilder.length() > "PermissionSnapshot{".length()) stringBuilder.append(", ");
+            stringBuilder.append(plan.getPermission(i)).append('=').append(isGranted(i));
+        }
+        return stringBuilder.append('}').toString();
+    }
+}
@@ -0,0 +1,89 @@
+package com.derek.permissionhelper;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide cache of permission status, sits in front of {@link PermissionHelper#hasPermission(android.content.Context, String)}
+ * so that hot paths don't pay a package manager IPC on every check.
+ *
+ * A grant can only change out from under us while the user is in the Settings app (or any other activity),
+ * so the cache has to be invalidated when the activity comes back after being stopped (Activity.onRestart),
+ * {@link PermissionHelper#openAppSetting(android.app.Activity)} does it on its own.
+ * The system permission dialog only pauses the activity, its results are written straight into the cache.
+ */
+public final class PermissionStatusCache {
+    // replaced on every invalidate, so a check started before invalidate() can only write into the discarded map
+    private static volatile Generation current = new Generation(0);
+    private static final AtomicLong hitCount = new AtomicLong();
+    private static final AtomicLong missCount = new AtomicLong();
+
+    private static final class Generation {
+        final int id;
+        final ConcurrentHashMap<String, Boolean> statusMap = new ConcurrentHashMap<>();
+
+        Generation(int id) {
+            this.id = id;
+        }
+    }
+
+    private PermissionStatusCache() {}
+
+    /**
+     * @return cached status, or null if the permission has to be checked against the package manager
+     */
+    static Boolean get(String permission) {
+        Boolean granted = current.statusMap.get(permission);
+        if (granted == null) {
+            missCount.incrementAndGet();
+        } else {
+            hitCount.incrementAndGet();
+        }
+        return granted;
+    }
+
+    static int generation() {
+        return current.id;
+    }
+
+    /**
+     * store a status which has been read from the package manager when the cache was at the given generation
+     */
+    static void put(String permission, boolean granted, int generationAtCheck) {
+        Generation generation = current;
+        if (generationAtCheck != generation.id) return;
+        // if invalidate() runs now, this goes into the map it has just discarded
+        generation.statusMap.put(permission, granted);
+    }
+
+    /**
+     * store a status which comes from the system dialog result
+     */
+    static void put(String permission, boolean granted) {
+        current.statusMap.put(permission, granted);
+    }
+
+    /**
+     * Call from Activity.onRestart, any permission may have been granted / revoked while we were away
+     */
+    public static synchronized void invalidate() {
+        current = new Generation(current.id + 1);
+    }
+
+    public static long getHitCount() {
+        return hitCount.get();
+    }
+
+    public static long getMissCount() {
+        return missCount.get();
+    }
+
+    public static void resetCounters() {
+        hitCount.set(0);
+        missCount.set(0);
+    }
+
+    public static int size() {
+        return current.statusMap.size();
+    }
+}
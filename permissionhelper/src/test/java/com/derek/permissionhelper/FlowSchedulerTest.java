@@ -0,0 +1,102 @@
+package com.derek.permissionhelper;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class FlowSchedulerTest {
+    private final ArrayDeque<Runnable> posted = new ArrayDeque<>();
+    private final Executor executor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            posted.add(command);
+        }
+    };
+    private int finishedCount = 0;
+    private final Runnable onFinished = new Runnable() {
+        @Override
+        public void run() {
+            finishedCount++;
+        }
+    };
+
+    private static FlowScheduler.Step step(final boolean done, final int[] counter) {
+        return new FlowScheduler.Step() {
+            @Override
+            public boolean run() {
+                counter[0]++;
+                return done;
+            }
+        };
+    }
+
+    @Test
+    public void grantedSteps_runInOneLoop() throws Exception {
+        FlowScheduler scheduler = new FlowScheduler(executor, Long.MAX_VALUE);
+        scheduler.setOnFinished(onFinished);
+        int[] counter = new int[1];
+        for (int i = 0; i < 10000; i++) scheduler.add(step(true, counter));
+
+        scheduler.resume();
+
+        assertEquals(10000, counter[0]);
+        assertEquals(1, finishedCount);
+        assertTrue(posted.isEmpty());
+    }
+
+    @Test
+    public void suspendedStep_waitsForResume() throws Exception {
+        FlowScheduler scheduler = new FlowScheduler(executor, Long.MAX_VALUE);
+        scheduler.setOnFinished(onFinished);
+        int[] counter = new int[1];
+        scheduler.add(step(false, counter));
+        scheduler.add(step(true, counter));
+
+        scheduler.resume();
+        assertEquals(1, counter[0]);
+        assertEquals(0, finishedCount);
+
+        scheduler.resume();
+        assertEquals(2, counter[0]);
+        assertEquals(1, finishedCount);
+    }
+
+    @Test
+    public void resumeFromInsideStep_continuesLoop() throws Exception {
+        final FlowScheduler scheduler = new FlowScheduler(executor, Long.MAX_VALUE);
+        scheduler.setOnFinished(onFinished);
+        final int[] counter = new int[1];
+        scheduler.add(new FlowScheduler.Step() {
+            @Override
+            public boolean run() {
+                scheduler.resume();
+                return false;
+            }
+        });
+        scheduler.add(step(true, counter));
+
+        scheduler.resume();
+
+        assertEquals(1, counter[0]);
+        assertEquals(1, finishedCount);
+    }
+
+    @Test
+    public void exceededBudget_continuesOnExecutor() throws Exception {
+        FlowScheduler scheduler = new FlowScheduler(executor, -1);
+        scheduler.setOnFinished(onFinished);
+        int[] counter = new int[1];
+        for (int i = 0; i < 3; i++) scheduler.add(step(true, counter));
+
+        scheduler.resume();
+        assertEquals(1, counter[0]);
+        assertEquals(1, posted.size());
+
+        while (! posted.isEmpty()) posted.poll().run();
+        assertEquals(1, finishedCount);
+        assertEquals(3, counter[0]);
+    }
+}
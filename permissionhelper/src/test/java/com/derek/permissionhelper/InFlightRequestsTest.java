@@ -0,0 +1,86 @@
+package com.derek.permissionhelper;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class InFlightRequestsTest {
+    private static final String CONTACTS = "android.permission.READ_CONTACTS";
+    private static final String SMS = "android.permission.READ_SMS";
+
+    private final List<String> events = new ArrayList<>();
+    private final InFlightRequests.Waiter waiter = new InFlightRequests.Waiter() {
+        @Override
+        public void onInFlightResult(String permission, boolean granted) {
+            events.add(permission + "=" + granted);
+        }
+
+        @Override
+        public void onInFlightCancelled(String permission) {
+            events.add(permission + " cancelled");
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        PermissionHelper.RLog.setLevel(PermissionHelper.RLog.NONE);
+    }
+
+    @Test
+    public void waiters_areCompletedFromTheOneResult() throws Exception {
+        InFlightRequests.add(1, new String[]{CONTACTS, SMS});
+        assertTrue(InFlightRequests.attach(CONTACTS, waiter));
+        assertTrue(InFlightRequests.attach(SMS, waiter));
+        assertFalse(InFlightRequests.attach("android.permission.CAMERA", waiter));
+
+        InFlightRequests.complete(1, new String[]{CONTACTS, SMS}, new int[]{0, -1});
+
+        assertEquals(2, events.size());
+        assertTrue(events.contains(CONTACTS + "=true"));
+        assertTrue(events.contains(SMS + "=false"));
+        assertFalse(InFlightRequests.isInFlight(CONTACTS));
+    }
+
+    @Test
+    public void interruptedRequest_completesAsDenied() throws Exception {
+        InFlightRequests.add(2, new String[]{CONTACTS});
+        InFlightRequests.attach(CONTACTS, waiter);
+
+        InFlightRequests.complete(2, new String[0], new int[0]);
+
+        assertEquals(CONTACTS + "=false", events.get(0));
+    }
+
+    @Test
+    public void cancelledRequest_releasesItsWaiters() throws Exception {
+        InFlightRequests.add(3, new String[]{CONTACTS});
+        InFlightRequests.attach(CONTACTS, waiter);
+
+        InFlightRequests.cancel(3);
+
+        assertEquals(1, events.size());
+        assertEquals(CONTACTS + " cancelled", events.get(0));
+        assertFalse(InFlightRequests.isInFlight(CONTACTS));
+        // the result of the dropped request, if it ever comes, goes to no one
+        InFlightRequests.complete(3, new String[]{CONTACTS}, new int[]{0});
+        assertEquals(1, events.size());
+    }
+
+    @Test
+    public void newerRequest_forTheSamePermission_isNotCompletedByTheOlder() throws Exception {
+        InFlightRequests.add(4, new String[]{CONTACTS});
+        InFlightRequests.add(5, new String[]{CONTACTS});
+        InFlightRequests.attach(CONTACTS, waiter);
+
+        InFlightRequests.complete(4, new String[]{CONTACTS}, new int[]{0});
+        assertTrue(events.isEmpty());
+        assertTrue(InFlightRequests.isInFlight(CONTACTS));
+
+        InFlightRequests.cancel(5);
+        assertEquals(CONTACTS + " cancelled", events.get(0));
+    }
+}
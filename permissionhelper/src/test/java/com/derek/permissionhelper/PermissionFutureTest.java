@@ -0,0 +1,93 @@
+package com.derek.permissionhelper;
+
+import org.junit.Test;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.*;
+
+public class PermissionFutureTest {
+    private final Executor direct = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Test(expected = TimeoutException.class)
+    public void timedGet_timesOut() throws Exception {
+        new PermissionFuture<Boolean>().get(10, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void get_wakesUpOnCompletionFromAnotherThread() throws Exception {
+        final PermissionFuture<Boolean> future = new PermissionFuture<>();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                future.complete(true);
+            }
+        }).start();
+
+        assertTrue(future.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void then_chainsValueAndFailure() throws Exception {
+        PermissionFuture<Integer> future = new PermissionFuture<>();
+        PermissionFuture<Integer> doubled = future.then(new PermissionFuture.Function<Integer, Integer>() {
+            @Override
+            public Integer apply(Integer value) throws Exception {
+                return value * 2;
+            }
+        }, direct);
+        PermissionFuture<Integer> failed = doubled.then(new PermissionFuture.Function<Integer, Integer>() {
+            @Override
+            public Integer apply(Integer value) throws Exception {
+                throw new IllegalStateException("boom");
+            }
+        }, direct);
+
+        future.complete(21);
+
+        assertEquals(Integer.valueOf(42), doubled.get());
+        try {
+            failed.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test
+    public void cancel_runsOnCancelOnceAndCancelsUpstream() throws Exception {
+        final int[] cancelCount = new int[1];
+        PermissionFuture<Integer> future = new PermissionFuture<>();
+        future.setOnCancel(new Runnable() {
+            @Override
+            public void run() {
+                cancelCount[0]++;
+            }
+        });
+        PermissionFuture<Integer> next = future.then(new PermissionFuture.Function<Integer, Integer>() {
+            @Override
+            public Integer apply(Integer value) throws Exception {
+                return value;
+            }
+        }, direct);
+
+        assertTrue(next.cancel(false));
+        assertFalse(future.cancel(false));
+        assertTrue(future.isCancelled());
+        assertEquals(1, cancelCount[0]);
+        try {
+            future.get();
+            fail();
+        } catch (CancellationException expected) {
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.derek.permissionhelper;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PermissionHelperRegistryTest {
+
+    @Test
+    public void unregistered_isNotLive() throws Exception {
+        int liveCount = PermissionHelperRegistry.getLiveCount();
+        PermissionHelper helper = new PermissionHelper();
+        int id = PermissionHelperRegistry.register(helper);
+
+        assertEquals(liveCount + 1, PermissionHelperRegistry.getLiveCount());
+        assertTrue(PermissionHelperRegistry.getLiveHelpers().contains(helper));
+
+        PermissionHelperRegistry.unregister(id);
+        assertEquals(liveCount, PermissionHelperRegistry.getLiveCount());
+        assertFalse(PermissionHelperRegistry.getLiveHelpers().contains(helper));
+    }
+
+    @Test
+    public void collectedHelper_isPurgedAndCountedAsLeaked() throws Exception {
+        long leakedCount = PermissionHelperRegistry.getLeakedCount();
+        int liveCount = PermissionHelperRegistry.getLiveCount();
+        PermissionHelperRegistry.register(new PermissionHelper());
+        assertEquals(liveCount + 1, PermissionHelperRegistry.getLiveCount());
+
+        // the registry only holds it weakly
+        for (int i = 0; i < 50 && PermissionHelperRegistry.getLeakedCount() == leakedCount; i++) {
+            List<byte[]> garbage = new ArrayList<>();
+            for (int j = 0; j < 16; j++) garbage.add(new byte[1 << 16]);
+            System.gc();
+            Thread.sleep(10);
+        }
+
+        assertEquals(leakedCount + 1, PermissionHelperRegistry.getLeakedCount());
+        assertEquals(liveCount, PermissionHelperRegistry.getLiveCount());
+    }
+}
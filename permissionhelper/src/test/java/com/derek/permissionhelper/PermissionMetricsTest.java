@@ -0,0 +1,81 @@
+package com.derek.permissionhelper;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class PermissionMetricsTest {
+    private static final String CONTACTS = "android.permission.READ_CONTACTS";
+
+    @Before
+    public void setUp() throws Exception {
+        PermissionMetrics.reset();
+    }
+
+    @Test
+    public void histogram_percentileIsBucketUpperBound() throws Exception {
+        PermissionMetrics.Histogram histogram = PermissionMetrics.getFlowLatency();
+        for (int i = 0; i < 95; i++) histogram.record(TimeUnit.MILLISECONDS.toNanos(3));
+        for (int i = 0; i < 5; i++) histogram.record(TimeUnit.SECONDS.toNanos(2));
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(4, histogram.getPercentileMillis(0.95));
+        assertEquals(2048, histogram.getPercentileMillis(0.99));
+    }
+
+    @Test
+    public void permissionResults_countedPerPermission() throws Exception {
+        PermissionMetrics.onPermissionResult(CONTACTS, true);
+        PermissionMetrics.onPermissionResult(CONTACTS, false);
+        PermissionMetrics.onPermissionResult(CONTACTS, false);
+
+        assertEquals(1, PermissionMetrics.getGrantCount(CONTACTS));
+        assertEquals(2, PermissionMetrics.getDenialCount(CONTACTS));
+        assertEquals(2, PermissionMetrics.getCounter(PermissionMetrics.DENIALS));
+        assertEquals(-1, PermissionMetrics.getGrantCount("android.permission.CAMERA"));
+    }
+
+    @Test
+    public void reset_freesThePermissionTable() throws Exception {
+        for (int i = 0; i < 64; i++) PermissionMetrics.onPermissionResult("permission" + i, true);
+        PermissionMetrics.onPermissionResult(CONTACTS, true);
+        assertEquals(-1, PermissionMetrics.getGrantCount(CONTACTS));
+
+        PermissionMetrics.reset();
+        assertEquals(-1, PermissionMetrics.getGrantCount("permission0"));
+        PermissionMetrics.onPermissionResult(CONTACTS, true);
+        assertEquals(1, PermissionMetrics.getGrantCount(CONTACTS));
+    }
+
+    @Test
+    public void packageManagerCalls_countedPerFlow() throws Exception {
+        final int[] reported = {-1};
+        PermissionMetrics.setListener(new PermissionMetrics.Listener() {
+            @Override
+            public void onFlowFinished(long durationNanos, boolean satisfied, int rationalesShown, int roundTrips, int packageManagerCalls) {
+                reported[0] = packageManagerCalls;
+            }
+
+            @Override
+            public void onRoundTrip(int requestCode, String[] permissions, long durationNanos, boolean interrupted) {
+            }
+        });
+        try {
+            int[] flowCalls = new int[1];
+            PermissionMetrics.onPackageManagerCall(); // not made for the flow
+            int[] previous = PermissionMetrics.countFlowCalls(flowCalls);
+            PermissionMetrics.onPackageManagerCall();
+            PermissionMetrics.onPackageManagerCall();
+            PermissionMetrics.countFlowCalls(previous);
+            PermissionMetrics.onFlowFinished(System.nanoTime(), true, 0, 0, flowCalls[0]);
+
+            assertEquals(2, reported[0]);
+            assertEquals(3, PermissionMetrics.getCounter(PermissionMetrics.PACKAGE_MANAGER_IPCS));
+        } finally {
+            PermissionMetrics.setListener(null);
+        }
+    }
+}
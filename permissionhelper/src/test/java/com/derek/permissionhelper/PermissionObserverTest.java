@@ -0,0 +1,54 @@
+package com.derek.permissionhelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PermissionObserverTest {
+    private static final String CONTACTS = "android.permission.READ_CONTACTS";
+    private static final String SMS = "android.permission.READ_SMS";
+
+    private final List<String> changes = new ArrayList<>();
+    private final PermissionObserver.Subscriber subscriber = new PermissionObserver.Subscriber() {
+        @Override
+        public void onPermissionChanged(String permission, boolean granted) {
+            changes.add(permission + "=" + granted);
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        PermissionHelper.RLog.setLevel(PermissionHelper.RLog.NONE);
+        PermissionObserver.subscribe(subscriber, CONTACTS);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        PermissionObserver.unsubscribe(subscriber);
+    }
+
+    @Test
+    public void onlyChangesOfSubscribedPermissions_arePushed() throws Exception {
+        PermissionObserver.onResult(CONTACTS, false);
+        PermissionObserver.onResult(CONTACTS, false);
+        PermissionObserver.onResult(SMS, true);
+        PermissionObserver.onResult(CONTACTS, true);
+
+        assertEquals(1, changes.size());
+        assertEquals(CONTACTS + "=true", changes.get(0));
+    }
+
+    @Test
+    public void unsubscribed_isNotTold() throws Exception {
+        PermissionObserver.onResult(CONTACTS, false);
+        PermissionObserver.unsubscribe(subscriber);
+        PermissionObserver.onResult(CONTACTS, true);
+
+        assertTrue(changes.isEmpty());
+    }
+}
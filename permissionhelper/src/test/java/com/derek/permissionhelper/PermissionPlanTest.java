@@ -0,0 +1,51 @@
+package com.derek.permissionhelper;
+
+import com.derek.permissionhelper.PermissionHelper.Permissions;
+
+import org.junit.Test;
+
+import java.util.BitSet;
+
+import static org.junit.Assert.*;
+
+public class PermissionPlanTest {
+    private static final String CONTACTS = "android.permission.READ_CONTACTS";
+    private static final String SMS = "android.permission.READ_SMS";
+    private static final String CALENDAR = "android.permission.READ_CALENDAR";
+
+    @Test
+    public void compile_mergesDuplicates() throws Exception {
+        PermissionPlan plan = PermissionPlan.compile(
+                Permissions.newPermissions(CONTACTS, "title", "message"),
+                Permissions.newPermissionGroup(
+                        Permissions.newSubPermissions(SMS, false),
+                        Permissions.newSubPermissions(CALENDAR, false),
+                        Permissions.newSubPermissions(CONTACTS, false)),
+                Permissions.newPermissionGroup(
+                        Permissions.newSubPermissions(SMS, false)));
+
+        assertEquals(3, plan.size());
+        assertEquals(3, plan.entryCount());
+        assertArrayEquals(new int[] {0}, plan.getEntryIndices(0));
+        assertArrayEquals(new int[] {0, 1, 2}, plan.getEntryIndices(1));
+        assertArrayEquals(new int[] {plan.indexOf(SMS)}, plan.getEntryIndices(2));
+        assertEquals(-1, plan.indexOf("android.permission.CAMERA"));
+    }
+
+    @Test
+    public void isSatisfied_onlyLooksAtCriticalPermissions() throws Exception {
+        PermissionPlan plan = PermissionPlan.compile(
+                Permissions.newPermissions(CONTACTS, "title", "message"),
+                Permissions.newPermissionGroup(
+                        Permissions.newSubPermissions(SMS, false),
+                        Permissions.newSubPermissions(CONTACTS, false)));
+
+        assertTrue(plan.isCritical(plan.indexOf(CONTACTS)));
+        assertFalse(plan.isCritical(plan.indexOf(SMS)));
+
+        BitSet granted = new BitSet();
+        assertFalse(plan.isSatisfied(granted));
+        granted.set(plan.indexOf(CONTACTS));
+        assertTrue(plan.isSatisfied(granted));
+    }
+}
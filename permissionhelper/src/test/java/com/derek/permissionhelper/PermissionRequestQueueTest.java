@@ -0,0 +1,124 @@
+package com.derek.permissionhelper;
+
+import android.support.v4.app.ActivityCompat;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PermissionRequestQueueTest {
+    private final List<Integer> started = new ArrayList<>();
+    private final PermissionRequestQueue.Requester requester = new PermissionRequestQueue.Requester() {
+        @Override
+        public boolean request(int requestCode, String[] permissions) {
+            started.add(requestCode);
+            return true;
+        }
+    };
+    private static final String[] PERMISSIONS = {"android.permission.CAMERA"};
+
+    @Before
+    public void setUp() throws Exception {
+        PermissionHelper.RLog.setLevel(PermissionHelper.RLog.NONE);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        // don't leave anything running for the next test
+        while (PermissionRequestQueue.isBusy()) {
+            PermissionRequestQueue.cancel(started.get(started.size() - 1));
+        }
+    }
+
+    @Test
+    public void oneDialogAtATime_userInitiatedFirst() throws Exception {
+        PermissionRequestQueue.enqueue(PermissionRequestQueue.PRIORITY_BACKGROUND, 1, PERMISSIONS, requester);
+        PermissionRequestQueue.enqueue(PermissionRequestQueue.PRIORITY_BACKGROUND, 2, PERMISSIONS, requester);
+        PermissionRequestQueue.enqueue(PermissionRequestQueue.PRIORITY_USER_INITIATED, 3, PERMISSIONS, requester);
+        assertEquals(1, started.size());
+        assertEquals(2, PermissionRequestQueue.getQueueDepth());
+
+        PermissionRequestQueue.onResult(1);
+        PermissionRequestQueue.onResult(3);
+        PermissionRequestQueue.onResult(2);
+
+        assertEquals(3, started.size());
+        assertEquals(Integer.valueOf(3), started.get(1));
+        assertEquals(Integer.valueOf(2), started.get(2));
+        assertFalse(PermissionRequestQueue.isBusy());
+    }
+
+    @Test
+    public void interruptedRequest_isAskedAgain() throws Exception {
+        PermissionRequestQueue.enqueue(PermissionRequestQueue.PRIORITY_USER_INITIATED, 1, PERMISSIONS, requester);
+
+        assertTrue(PermissionRequestQueue.retry(1, new String[0], new int[0]));
+        assertEquals(2, started.size());
+        assertFalse(PermissionRequestQueue.retry(1, PERMISSIONS, new int[]{0}));
+    }
+
+    @Test
+    public void cancelledRequest_isNotStarted() throws Exception {
+        PermissionRequestQueue.enqueue(PermissionRequestQueue.PRIORITY_USER_INITIATED, 1, PERMISSIONS, requester);
+        PermissionRequestQueue.enqueue(PermissionRequestQueue.PRIORITY_USER_INITIATED, 2, PERMISSIONS, requester);
+        PermissionRequestQueue.enqueue(PermissionRequestQueue.PRIORITY_USER_INITIATED, 3, PERMISSIONS, requester);
+
+        PermissionRequestQueue.cancel(2);
+        PermissionRequestQueue.cancel(1);
+
+        assertEquals(2, started.size());
+        assertEquals(Integer.valueOf(3), started.get(1));
+        assertEquals(0, PermissionRequestQueue.getQueueDepth());
+    }
+
+    private static final class NotAnswered implements ActivityCompat.OnRequestPermissionsResultCallback {
+        int count;
+
+        @Override
+        public void onRequestPermissionsResult(int requestCode, String[] permissions, int[] grantResults) {
+            if (permissions.length == 0 && grantResults.length == 0) count++;
+        }
+    }
+
+    @Test
+    public void requestOfAHelperGone_isCompletedAsNotAnswered() throws Exception {
+        NotAnswered callback = new NotAnswered();
+        int requestCode = PermissionResultDispatcher.register(callback);
+        InFlightRequests.add(requestCode, PERMISSIONS);
+        PermissionRequestQueue.enqueue(PermissionRequestQueue.PRIORITY_USER_INITIATED, requestCode, PERMISSIONS,
+                new PermissionRequestQueue.Requester() {
+                    @Override
+                    public boolean request(int requestCode, String[] permissions) {
+                        return false;
+                    }
+                });
+
+        assertEquals(1, callback.count);
+        assertFalse(InFlightRequests.isInFlight(PERMISSIONS[0]));
+        assertFalse(PermissionRequestQueue.isBusy());
+
+        // the next one goes
+        PermissionRequestQueue.enqueue(PermissionRequestQueue.PRIORITY_USER_INITIATED, 2, PERMISSIONS, requester);
+        assertEquals(1, started.size());
+    }
+
+    @Test
+    public void cancelledRequest_isCompletedAsNotAnswered() throws Exception {
+        NotAnswered callback = new NotAnswered();
+        PermissionRequestQueue.enqueue(PermissionRequestQueue.PRIORITY_USER_INITIATED, 1, PERMISSIONS, requester);
+        int requestCode = PermissionResultDispatcher.register(callback);
+        InFlightRequests.add(requestCode, PERMISSIONS);
+        PermissionRequestQueue.enqueue(PermissionRequestQueue.PRIORITY_USER_INITIATED, requestCode, PERMISSIONS, requester);
+
+        PermissionRequestQueue.cancel(requestCode);
+
+        assertEquals(1, callback.count);
+        assertFalse(InFlightRequests.isInFlight(PERMISSIONS[0]));
+        assertEquals(0, PermissionRequestQueue.getQueueDepth());
+    }
+}
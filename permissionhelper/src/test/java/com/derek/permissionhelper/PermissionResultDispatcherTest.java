@@ -0,0 +1,129 @@
+package com.derek.permissionhelper;
+
+import android.support.v4.app.ActivityCompat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class PermissionResultDispatcherTest {
+    private static final String[] PERMISSIONS = {"android.permission.CAMERA"};
+    private static final int[] GRANTED = {0};
+
+    private final List<Integer> delivered = new ArrayList<>();
+    private final ActivityCompat.OnRequestPermissionsResultCallback callback = new ActivityCompat.OnRequestPermissionsResultCallback() {
+        @Override
+        public void onRequestPermissionsResult(int requestCode, String[] permissions, int[] grantResults) {
+            delivered.add(requestCode);
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        PermissionHelper.RLog.setLevel(PermissionHelper.RLog.NONE);
+    }
+
+    @Test
+    public void requestCodes_areDistinctNonZero16Bits() throws Exception {
+        Set<Integer> codes = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            int requestCode = PermissionResultDispatcher.register(callback);
+            assertTrue(requestCode > 0 && requestCode <= 0xFFFF);
+            assertTrue(codes.add(requestCode));
+        }
+        for (int requestCode : codes) {
+            assertTrue(PermissionResultDispatcher.unregister(requestCode));
+        }
+    }
+
+    @Test
+    public void result_isDeliveredOnce() throws Exception {
+        int requestCode = PermissionResultDispatcher.register(callback);
+
+        assertTrue(PermissionResultDispatcher.dispatch(requestCode, PERMISSIONS, GRANTED));
+        assertFalse(PermissionResultDispatcher.dispatch(requestCode, PERMISSIONS, GRANTED));
+        assertEquals(1, delivered.size());
+        assertEquals(Integer.valueOf(requestCode), delivered.get(0));
+    }
+
+    @Test
+    public void unregistered_isNotDelivered() throws Exception {
+        int requestCode = PermissionResultDispatcher.register(callback);
+
+        assertTrue(PermissionResultDispatcher.unregister(requestCode));
+        assertFalse(PermissionResultDispatcher.unregister(requestCode));
+        assertFalse(PermissionResultDispatcher.dispatch(requestCode, PERMISSIONS, GRANTED));
+        assertTrue(delivered.isEmpty());
+    }
+
+    @Test
+    public void staleRequestCode_ofReusedSlot_isNotDelivered() throws Exception {
+        int stale = PermissionResultDispatcher.register(callback);
+        PermissionResultDispatcher.unregister(stale);
+        // go around the table until the slot is handed out again, with a new generation
+        int reused;
+        List<Integer> others = new ArrayList<>();
+        while (((reused = PermissionResultDispatcher.register(callback)) & 0xFF) != (stale & 0xFF)) {
+            others.add(reused);
+        }
+
+        assertNotEquals(stale, reused);
+        assertFalse(PermissionResultDispatcher.dispatch(stale, PERMISSIONS, GRANTED));
+        assertTrue(PermissionResultDispatcher.dispatch(reused, PERMISSIONS, GRANTED));
+        assertEquals(1, delivered.size());
+        for (int requestCode : others) {
+            PermissionResultDispatcher.unregister(requestCode);
+        }
+    }
+
+    @Test
+    public void unrelatedActivityResult_leavesThePendingPermissionRequestAlone() throws Exception {
+        final List<Integer> requested = new ArrayList<>();
+        int requestCode = PermissionResultDispatcher.register(callback);
+        InFlightRequests.add(requestCode, PERMISSIONS);
+        PermissionRequestQueue.enqueue(PermissionRequestQueue.PRIORITY_USER_INITIATED, requestCode, PERMISSIONS, new PermissionRequestQueue.Requester() {
+            @Override
+            public boolean request(int requestCode, String[] permissions) {
+                requested.add(requestCode);
+                return true;
+            }
+        });
+
+        // the app's own startActivityForResult came back with the same request code
+        assertFalse(PermissionResultDispatcher.dispatchActivityResult(requestCode));
+        assertTrue(delivered.isEmpty());
+        assertTrue(InFlightRequests.isInFlight(PERMISSIONS[0]));
+        assertTrue(PermissionRequestQueue.isBusy());
+        assertEquals(1, requested.size());
+
+        assertTrue(PermissionResultDispatcher.dispatch(requestCode, PERMISSIONS, GRANTED));
+        assertEquals(1, delivered.size());
+        assertFalse(InFlightRequests.isInFlight(PERMISSIONS[0]));
+        assertFalse(PermissionRequestQueue.isBusy());
+    }
+
+    @Test
+    public void activityResultRegistration_onlyGetsActivityResults() throws Exception {
+        int requestCode = PermissionResultDispatcher.registerActivityResult(callback);
+
+        assertFalse(PermissionResultDispatcher.dispatch(requestCode, PERMISSIONS, GRANTED));
+        assertFalse(PermissionResultDispatcher.deliverNotAnswered(requestCode));
+        assertTrue(delivered.isEmpty());
+        assertTrue(PermissionResultDispatcher.dispatchActivityResult(requestCode));
+        assertFalse(PermissionResultDispatcher.dispatchActivityResult(requestCode));
+        assertEquals(1, delivered.size());
+    }
+
+    @Test
+    public void foreignRequestCode_isIgnored() throws Exception {
+        assertFalse(PermissionResultDispatcher.dispatch(0x10000, PERMISSIONS, GRANTED));
+        assertFalse(PermissionResultDispatcher.dispatch(0, PERMISSIONS, GRANTED));
+        assertTrue(delivered.isEmpty());
+    }
+}
@@ -0,0 +1,31 @@
+package com.derek.permissionhelper;
+
+import com.derek.permissionhelper.PermissionHelper.Permissions;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PermissionSnapshotTest {
+    private static final String CONTACTS = "android.permission.READ_CONTACTS";
+    private static final String SMS = "android.permission.READ_SMS";
+
+    @Test
+    public void snapshot_doesNotFollowResult() throws Exception {
+        PermissionResult result = new PermissionResult(PermissionPlan.compile(
+                Permissions.newSubPermissions(CONTACTS, true), Permissions.newSubPermissions(SMS, false)));
+        int contacts = result.getPlan().indexOf(CONTACTS);
+        result.granted.set(contacts);
+        result.answered.set(contacts);
+
+        PermissionSnapshot snapshot = result.snapshot();
+        result.granted.clear(contacts);
+
+        assertTrue(snapshot.isGranted(CONTACTS));
+        assertTrue(snapshot.isAnswered(CONTACTS));
+        assertTrue(snapshot.isSatisfied());
+        assertFalse(snapshot.isAnswered(SMS));
+        assertFalse(snapshot.isGranted("android.permission.CAMERA"));
+        assertFalse(result.snapshot().isSatisfied());
+    }
+}
@@ -0,0 +1,88 @@
+package com.derek.permissionhelper;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class PermissionStatusCacheTest {
+    private static final String CAMERA = "android.permission.CAMERA";
+
+    @Before
+    public void setUp() throws Exception {
+        PermissionStatusCache.invalidate();
+        PermissionStatusCache.resetCounters();
+    }
+
+    @Test
+    public void checkStartedBeforeInvalidate_isNotWrittenBack() throws Exception {
+        int generation = PermissionStatusCache.generation();
+        PermissionStatusCache.invalidate();
+        PermissionStatusCache.put(CAMERA, true, generation);
+
+        assertNull(PermissionStatusCache.get(CAMERA));
+        assertEquals(1, PermissionStatusCache.getMissCount());
+
+        PermissionStatusCache.put(CAMERA, false, PermissionStatusCache.generation());
+        assertEquals(Boolean.FALSE, PermissionStatusCache.get(CAMERA));
+        assertEquals(1, PermissionStatusCache.getHitCount());
+    }
+
+    @Test
+    public void dialogResult_isWrittenStraightIn() throws Exception {
+        PermissionStatusCache.put(CAMERA, true);
+        assertEquals(Boolean.TRUE, PermissionStatusCache.get(CAMERA));
+
+        PermissionStatusCache.invalidate();
+        assertNull(PermissionStatusCache.get(CAMERA));
+        assertEquals(0, PermissionStatusCache.size());
+    }
+
+    /**
+     * readers fill the cache from a "package manager" which another thread flips, invalidating after each flip:
+     * once invalidate() has returned, the cache never answers the status from before it
+     */
+    @Test
+    public void readRacingInvalidate_neverAnswersAStaleStatus() throws Exception {
+        final AtomicBoolean platform = new AtomicBoolean();
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicInteger staleCount = new AtomicInteger();
+        final int readerCount = 4;
+        final CountDownLatch readersDone = new CountDownLatch(readerCount);
+
+        for (int i = 0; i < readerCount; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (running.get()) {
+                        if (PermissionStatusCache.get(CAMERA) == null) {
+                            int generation = PermissionStatusCache.generation();
+                            boolean granted = platform.get();
+                            Thread.yield(); // widen the window for an invalidate in between
+                            PermissionStatusCache.put(CAMERA, granted, generation);
+                        }
+                    }
+                    readersDone.countDown();
+                }
+            }).start();
+        }
+
+        for (int flip = 0; flip < 20000; flip++) {
+            boolean granted = ! platform.get();
+            platform.set(granted);
+            PermissionStatusCache.invalidate();
+            for (int read = 0; read < 4; read++) {
+                Boolean cached = PermissionStatusCache.get(CAMERA);
+                if (cached != null && cached != granted) staleCount.incrementAndGet();
+            }
+        }
+        running.set(false);
+        readersDone.await();
+
+        assertEquals(0, staleCount.get());
+    }
+}
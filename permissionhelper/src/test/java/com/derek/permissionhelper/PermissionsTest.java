@@ -0,0 +1,58 @@
+package com.derek.permissionhelper;
+
+import com.derek.permissionhelper.PermissionHelper.Permissions;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PermissionsTest {
+    private static final String CONTACTS = "android.permission.READ_CONTACTS";
+    private static final String SMS = "android.permission.READ_SMS";
+
+    @Test
+    public void factories_returnInternedInstances() throws Exception {
+        assertSame(Permissions.newSubPermissions(CONTACTS, false), Permissions.newSubPermissions(CONTACTS, false));
+        assertSame(Permissions.newPermissions(CONTACTS, "title", "message"), Permissions.newPermissions(CONTACTS, true, "title", "message"));
+        assertSame(
+                Permissions.newPermissionGroup("title", "message", Permissions.newSubPermissions(SMS, false)),
+                Permissions.newPermissionGroup("title", "message", Permissions.newSubPermissions(SMS, false)));
+        assertNotSame(Permissions.newSubPermissions(CONTACTS, false), Permissions.newSubPermissions(CONTACTS, true));
+    }
+
+    @Test
+    public void modifiers_returnCopy() throws Exception {
+        Permissions permissions = Permissions.newSubPermissions(CONTACTS, false);
+        Permissions critical = permissions.critical(true);
+
+        assertNotSame(permissions, critical);
+        assertFalse(permissions.critical);
+        assertEquals(Permissions.newSubPermissions(CONTACTS, true), critical);
+        assertEquals(Permissions.newSubPermissions(CONTACTS, true).hashCode(), critical.hashCode());
+    }
+
+    @Test
+    public void internPool_isBounded() throws Exception {
+        Permissions first = Permissions.newSubPermissions("com.example.permission.P0", false);
+        for (int i = 1; i < 1000; i++) {
+            Permissions.newSubPermissions("com.example.permission.P" + i, false);
+        }
+
+        // evicted, an equal instance is built again
+        Permissions again = Permissions.newSubPermissions("com.example.permission.P0", false);
+        assertNotSame(first, again);
+        assertEquals(first, again);
+    }
+
+    @Test
+    public void isSatisfied_readsResult() throws Exception {
+        Permissions contacts = Permissions.newSubPermissions(CONTACTS, true);
+        Permissions group = Permissions.newPermissionGroup(contacts, Permissions.newSubPermissions(SMS, false));
+        PermissionResult result = new PermissionResult(PermissionPlan.compile(group));
+
+        assertFalse(group.isSatisfied(result));
+        result.granted.set(result.getPlan().indexOf(CONTACTS));
+        assertTrue(group.isSatisfied(result));
+        assertTrue(result.isSatisfied());
+    }
+}